@@ -0,0 +1,147 @@
+package cs224n.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * A small microbenchmark harness.
+ *
+ * Each benchmark is run for a number of warmup iterations, whose results are
+ * thrown away, and then for a number of measured iterations. An iteration calls
+ * the operation repeatedly until a time budget is used up. Per iteration, the
+ * harness records the time per call and the bytes allocated per call, on the
+ * calling thread.
+ *
+ * Results of every call are folded into a sink, so that the JIT cannot
+ * eliminate the work being measured.
+ */
+public class Bench {
+  public static interface Op {
+    public Object run() throws Exception;
+  }
+
+  public static class Result {
+    public final String name;
+    public final double[] nanosPerOp;
+    public final double bytesPerOp;
+    public final long ops;
+
+    private Result(String name, double[] nanosPerOp, double bytesPerOp, long ops){
+      this.name = name;
+      this.nanosPerOp = nanosPerOp;
+      this.bytesPerOp = bytesPerOp;
+      this.ops = ops;
+    }
+
+    public double mean(){
+      double sum = 0.0;
+      for(double x : nanosPerOp){ sum += x; }
+      return sum / ((double) nanosPerOp.length);
+    }
+
+    public double stddev(){
+      double mean = mean();
+      double sum = 0.0;
+      for(double x : nanosPerOp){ sum += (x - mean) * (x - mean); }
+      return nanosPerOp.length > 1 ? Math.sqrt(sum / ((double) (nanosPerOp.length - 1))) : 0.0;
+    }
+
+    public double median(){
+      double[] sorted = Arrays.copyOf(nanosPerOp, nanosPerOp.length);
+      Arrays.sort(sorted);
+      return sorted[sorted.length / 2];
+    }
+
+    @Override
+    public String toString(){
+      double mean = mean();
+      return String.format("%-48s %14.1f %10.1f %12.1f %14.1f %10.1f",
+          name, mean, stddev(), 1e9 / mean, bytesPerOp, bytesPerOp / mean * 1e9 / (1024.0 * 1024.0));
+    }
+  }
+
+  public static String header(){
+    return String.format("%-48s %14s %10s %12s %14s %10s",
+        "benchmark", "ns/op", "+/-", "ops/s", "bytes/op", "MB/s alloc");
+  }
+
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private static final com.sun.management.ThreadMXBean allocBean =
+      threadBean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()
+          ? (com.sun.management.ThreadMXBean) threadBean : null;
+
+  /** Results are folded into this, so that their computation cannot be optimized away */
+  public static volatile int sink = 0;
+
+  private final int warmupIterations;
+  private final int measuredIterations;
+  private final long iterationMillis;
+
+  public Bench(int warmupIterations, int measuredIterations, long iterationMillis){
+    if(measuredIterations <= 0){ throw new IllegalArgumentException("Must measure at least one iteration"); }
+    this.warmupIterations = warmupIterations;
+    this.measuredIterations = measuredIterations;
+    this.iterationMillis = iterationMillis;
+  }
+
+  /**
+   * Create a harness from the -warmup, -iterations and -millis options
+   */
+  public Bench(Properties props){
+    this(Integer.parseInt(props.getProperty("warmup", "3")),
+        Integer.parseInt(props.getProperty("iterations", "5")),
+        Long.parseLong(props.getProperty("millis", "500")));
+  }
+
+  private static long allocated(){
+    return allocBean == null ? 0 : allocBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Benchmark an operation
+   * @param name The name to report the benchmark under
+   * @param op The operation to time
+   * @return The measurements
+   */
+  public Result run(String name, Op op) throws Exception {
+    //--Warmup
+    for(int i=0; i<warmupIterations; i++){
+      iteration(op);
+    }
+    //--Measure
+    double[] nanosPerOp = new double[measuredIterations];
+    long totalOps = 0;
+    long totalBytes = 0;
+    for(int i=0; i<measuredIterations; i++){
+      long[] stats = iteration(op);
+      nanosPerOp[i] = ((double) stats[1]) / ((double) stats[0]);
+      totalOps += stats[0];
+      totalBytes += stats[2];
+    }
+    return new Result(name, nanosPerOp, ((double) totalBytes) / ((double) totalOps), totalOps);
+  }
+
+  /**
+   * Run a single iteration
+   * @return {calls, nanoseconds, bytes allocated}
+   */
+  private long[] iteration(Op op) throws Exception {
+    long budget = iterationMillis * 1000000L;
+    long ops = 0;
+    int hash = 0;
+    long allocStart = allocated();
+    long start = System.nanoTime();
+    long elapsed;
+    do {
+      Object result = op.run();
+      hash ^= System.identityHashCode(result);
+      ops += 1;
+      elapsed = System.nanoTime() - start;
+    } while(elapsed < budget);
+    long bytes = allocated() - allocStart;
+    sink ^= hash;
+    return new long[]{ ops, elapsed, bytes };
+  }
+}
@@ -0,0 +1,127 @@
+package cs224n.bench;
+
+import cs224n.assignments.CoreferenceTester;
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.coref.Document;
+import cs224n.coref.Mention;
+import cs224n.coref.Sentence;
+import cs224n.ling.Tree;
+import cs224n.util.IOUtils;
+import cs224n.util.StringUtils;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Benchmarks the plaintext (.dat) decoding path, and the matching encode() methods,
+ * on the smallest, the median and the largest document of a split.
+ *
+ * Tree and Sentence are measured on the longest sentence of the document;
+ * Mention on all of the document's gold mentions at once.
+ *
+ * Usage: java cs224n.bench.DecodeBenchmark -path [data path] [-data train|dev|test]
+ *          [-cases small,median,worst] [-warmup 3] [-iterations 5] [-millis 500]
+ */
+public class DecodeBenchmark {
+
+  private static void benchmark(Bench bench, String label, File file) throws Exception {
+    //--Prepare Inputs
+    final String datumText = IOUtils.slurpFile(file);
+    final SerializedDatum datum = SerializedDatum.decode(datumText);
+    final Document doc = datum.document;
+    Sentence longestSentence = doc.sentences.get(0);
+    int numTokens = 0;
+    for(Sentence s : doc.sentences){
+      if(s.length() > longestSentence.length()){ longestSentence = s; }
+      numTokens += s.length();
+    }
+    final Sentence sentence = longestSentence;
+    final Tree<String> tree = sentence.parse;
+    final String documentText = doc.encode();
+    final String sentenceText = sentence.encode();
+    final String treeText = tree.encode();
+    final List<Mention> mentions = datum.goldMentions;
+    final List<String> mentionTexts = new ArrayList<String>();
+    for(Mention m : mentions){ mentionTexts.add(m.encode()); }
+    System.out.println();
+    System.out.println("[" + label + "] " + doc.id + ": " + file.length() + " bytes, " + doc.sentences.size() + " sentences, " +
+        numTokens + " tokens (longest " + sentence.length() + "), " + mentions.size() + " gold mentions");
+    System.out.println(Bench.header());
+    //--Decode
+    System.out.println(bench.run(label + " Tree.decode", new Bench.Op(){
+      public Object run() { return Tree.decode(treeText); }
+    }));
+    System.out.println(bench.run(label + " Sentence.decode", new Bench.Op(){
+      public Object run() { return Sentence.decode(sentenceText); }
+    }));
+    System.out.println(bench.run(label + " Mention.decode (all gold)", new Bench.Op(){
+      public Object run() {
+        List<Mention> rtn = new ArrayList<Mention>(mentionTexts.size());
+        for(String text : mentionTexts){ rtn.add(Mention.decode(text, doc)); }
+        return rtn;
+      }
+    }));
+    System.out.println(bench.run(label + " Document.decode", new Bench.Op(){
+      public Object run() { return Document.decode(documentText); }
+    }));
+    System.out.println(bench.run(label + " SerializedDatum.decode", new Bench.Op(){
+      public Object run() { return SerializedDatum.decode(datumText); }
+    }));
+    //--Encode
+    System.out.println(bench.run(label + " Tree.encode", new Bench.Op(){
+      public Object run() { return tree.encode(); }
+    }));
+    System.out.println(bench.run(label + " Sentence.encode", new Bench.Op(){
+      public Object run() { return sentence.encode(); }
+    }));
+    System.out.println(bench.run(label + " Mention.encode (all gold)", new Bench.Op(){
+      public Object run() {
+        List<String> rtn = new ArrayList<String>(mentions.size());
+        for(Mention m : mentions){ rtn.add(m.encode()); }
+        return rtn;
+      }
+    }));
+    System.out.println(bench.run(label + " Document.encode", new Bench.Op(){
+      public Object run() { return doc.encode(); }
+    }));
+    System.out.println(bench.run(label + " SerializedDatum.encode", new Bench.Op(){
+      public Object run() { return datum.encode(); }
+    }));
+  }
+
+  public static void main(String[] args) throws Exception {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    String dataPath = props.getProperty("path", CoreferenceTester.dataPath);
+    DataType type = DataType.valueOf(props.getProperty("data", "train").toUpperCase());
+    List<String> cases = Arrays.asList(props.getProperty("cases", "small,median,worst").split(","));
+    Bench bench = new Bench(props);
+    //--Find Documents
+    //(sort the split by file size)
+    File splitDir = new File(dataPath + "/" + CoreferenceTester.conllData(type));
+    List<File> files = new ArrayList<File>();
+    for(File f : IOUtils.iterFilesRecursive(splitDir, ".dat")){ files.add(f); }
+    if(files.isEmpty()){ throw new IllegalArgumentException("No documents in " + splitDir); }
+    Collections.sort(files, new Comparator<File>(){
+      public int compare(File a, File b) {
+        long diff = a.length() - b.length();
+        return diff < 0 ? -1 : (diff > 0 ? 1 : a.getPath().compareTo(b.getPath()));
+      }
+    });
+    System.out.println("Benchmarking " + files.size() + " documents in " + splitDir);
+    //--Run
+    for(String c : cases){
+      c = c.trim();
+      if(c.equalsIgnoreCase("small")){
+        benchmark(bench, "small", files.get(0));
+      } else if(c.equalsIgnoreCase("median")){
+        benchmark(bench, "median", files.get(files.size() / 2));
+      } else if(c.equalsIgnoreCase("worst")){
+        benchmark(bench, "worst", files.get(files.size() - 1));
+      } else {
+        throw new IllegalArgumentException("Unknown benchmark case: " + c + " (must be small, median or worst)");
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package cs224n.bench;
+
+import cs224n.assignments.CoreferenceTester.CoreferenceScore;
+import cs224n.coref.*;
+import cs224n.ling.Tree;
+import cs224n.util.StringUtils;
+
+import java.util.*;
+
+/**
+ * Benchmarks the MUC and B^3 scorers on synthetic clusterings of increasing size.
+ *
+ * Each clustering is a single document with one mention per token. The gold
+ * clusters are built by attaching each mention to a recent entity or starting
+ * a new one. The guessed clusters are the gold clusters with a fraction of the
+ * mentions moved to another entity, or split off as singletons.
+ *
+ * Usage: java cs224n.bench.ScoringBenchmark [-sizes 300,3000,...] [-noise 0.2] [-seed 42]
+ *          [-warmup 3] [-iterations 5] [-millis 500]
+ */
+public class ScoringBenchmark {
+  private static final int SENTENCE_LENGTH = 1000;
+
+  private static class Clustering {
+    private final Document doc;
+    private final List<Entity> gold = new ArrayList<Entity>();
+    private final List<ClusteredMention> guess = new ArrayList<ClusteredMention>();
+    private final Set<Entity> guessEntities;
+
+    private Clustering(int numMentions, double noise, Random rand){
+      //--Create Document
+      List<Sentence> sentences = new ArrayList<Sentence>();
+      List<Mention> mentions = new ArrayList<Mention>(numMentions);
+      Document doc = new Document("synthetic-" + numMentions, sentences);
+      for(int start=0; start<numMentions; start+=SENTENCE_LENGTH){
+        int length = Math.min(SENTENCE_LENGTH, numMentions - start);
+        List<String> words = Collections.nCopies(length, "w");
+        List<String> tags = Collections.nCopies(length, "NN");
+        List<String> ner = Collections.nCopies(length, "O");
+        List<String> speakers = Collections.nCopies(length, "PER0");
+        Sentence sentence = new Sentence(words, words, tags, ner, speakers, new Tree<String>("ROOT"));
+        sentences.add(sentence);
+        for(int i=0; i<length; i++){
+          mentions.add(new Mention(doc, sentence, i, i+1, new Tree<String>("NN"), i));
+        }
+      }
+      doc.setMentions(mentions);
+      this.doc = doc;
+      //--Gold Clusters
+      //(attach each mention to one of the last few entities, or start a new one)
+      List<List<Mention>> goldMentions = new ArrayList<List<Mention>>();
+      for(Mention m : mentions){
+        if(goldMentions.isEmpty() || rand.nextDouble() < 0.3){
+          goldMentions.add(new ArrayList<Mention>());
+        }
+        int window = Math.min(goldMentions.size(), 10);
+        goldMentions.get(goldMentions.size() - 1 - rand.nextInt(window)).add(m);
+      }
+      for(List<Mention> cluster : goldMentions){
+        gold.add(new Entity(mentions, cluster));
+      }
+      //--Guessed Clusters
+      //(copy the gold clusters, moving some mentions elsewhere)
+      List<Entity> guessClusters = new ArrayList<Entity>();
+      for(int i=0; i<goldMentions.size(); i++){ guessClusters.add(new Entity(mentions)); }
+      for(int i=0; i<goldMentions.size(); i++){
+        for(Mention m : goldMentions.get(i)){
+          if(rand.nextDouble() < noise){
+            if(rand.nextBoolean()){
+              guess.add(m.markSingleton());
+            } else {
+              guess.add(m.markCoreferent(guessClusters.get(rand.nextInt(guessClusters.size()))));
+            }
+          } else {
+            guess.add(m.markCoreferent(guessClusters.get(i)));
+          }
+        }
+      }
+      this.guessEntities = Entity.fromMentions(guess);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    String[] sizes = props.getProperty("sizes", "300,3000,30000,300000,1000000").split(",");
+    double noise = Double.parseDouble(props.getProperty("noise", "0.2"));
+    Random rand = new Random(Long.parseLong(props.getProperty("seed", "42")));
+    Bench bench = new Bench(props);
+    //--Run
+    for(String sizeStr : sizes){
+      int size = Integer.parseInt(sizeStr.trim());
+      final Clustering c = new Clustering(size, noise, rand);
+      System.out.println();
+      System.out.println("[" + size + " mentions] " + c.gold.size() + " gold entities, " + c.guessEntities.size() + " guessed entities");
+      System.out.println(Bench.header());
+      String label = String.format("%8d", size);
+      System.out.println(bench.run(label + " Entity.fromMentions", new Bench.Op(){
+        public Object run() { return Entity.fromMentions(c.guess); }
+      }));
+      System.out.println(bench.run(label + " Entity.hashCode (all guessed)", new Bench.Op(){
+        public Object run() {
+          int hash = 0;
+          for(Entity e : c.guessEntities){ hash ^= e.hashCode(); }
+          return hash;
+        }
+      }));
+      //(enter() scores recall by swapping the arguments of the precision scorers, so those are what is timed)
+      System.out.println(bench.run(label + " precisionMUC", new Bench.Op(){
+        public Object run() { return CoreferenceScore.precisionMUC(c.guessEntities, c.gold); }
+      }));
+      System.out.println(bench.run(label + " precisionMUC (recall)", new Bench.Op(){
+        public Object run() { return CoreferenceScore.precisionMUC(c.gold, c.guessEntities); }
+      }));
+      System.out.println(bench.run(label + " precisionB3", new Bench.Op(){
+        public Object run() { return CoreferenceScore.precisionB3(c.guessEntities, c.gold); }
+      }));
+      System.out.println(bench.run(label + " precisionB3 (recall)", new Bench.Op(){
+        public Object run() { return CoreferenceScore.precisionB3(c.gold, c.guessEntities); }
+      }));
+      System.out.println(bench.run(label + " CoreferenceScore.enter", new Bench.Op(){
+        public Object run() { return new CoreferenceScore().enter(c.doc, c.guess, c.gold); }
+      }));
+    }
+  }
+}
@@ -0,0 +1,184 @@
+package cs224n.assignments;
+
+import cs224n.coref.*;
+import cs224n.ling.Tree;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes a system's clusters in the CoNLL-2011 format, one document at a time.
+ * Each document is written and flushed as soon as it is given, so the writer
+ * holds on to nothing between documents.
+ *
+ * Every token is a line of twelve columns: document id, part number, word number,
+ * word, POS tag, parse bit, predicate lemma, predicate frameset, word sense,
+ * speaker, named entities, and coreference. The predicate columns are always "-".
+ * Clusters are numbered within each document in order of their first mention;
+ * singleton clusters are written too.
+ */
+public class ConllWriter implements Closeable {
+  private final BufferedWriter out;
+  private int documents = 0;
+
+  public ConllWriter(File file) throws IOException {
+    this(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+  }
+
+  public ConllWriter(Writer out){
+    this.out = new BufferedWriter(out, 1 << 16);
+  }
+
+  /**
+   * Write a document, with the clusters guessed for it
+   * @param doc The document; its mentions must be the ones which were clustered
+   * @param guess The guessed clusters, as returned by runCoreference()
+   */
+  public void write(Document doc, Collection<ClusteredMention> guess) throws IOException {
+    //--Number Clusters
+    Map<Mention,Entity> entityOf = new HashMap<Mention,Entity>();
+    for(ClusteredMention m : guess){ entityOf.put(m.mention, m.entity); }
+    Map<Entity,Integer> clusterIndex = new IdentityHashMap<Entity,Integer>();
+    Map<Sentence,List<Mention>> mentionsBySentence = new IdentityHashMap<Sentence,List<Mention>>();
+    for(Mention m : doc.getMentions()){
+      Entity e = entityOf.get(m);
+      if(e == null){ throw new IllegalArgumentException("Mention was not clustered: " + m); }
+      if(!clusterIndex.containsKey(e)){ clusterIndex.put(e, clusterIndex.size()); }
+      List<Mention> inSentence = mentionsBySentence.get(m.sentence);
+      if(inSentence == null){
+        inSentence = new ArrayList<Mention>();
+        mentionsBySentence.put(m.sentence, inSentence);
+      }
+      inSentence.add(m);
+    }
+    //--Write
+    out.write("#begin document (" + doc.id + "); part 000\n");
+    for(Sentence sentence : doc.sentences){
+      List<Mention> mentions = mentionsBySentence.get(sentence);
+      String[] parse = parseBits(sentence);
+      String[] ner = nerBits(sentence);
+      String[] coref = corefBits(sentence, mentions == null ? Collections.<Mention>emptyList() : mentions, entityOf, clusterIndex);
+      for(int i=0; i<sentence.length(); i++){
+        out.write(doc.id); out.write('\t');
+        out.write("0"); out.write('\t');
+        out.write(Integer.toString(i)); out.write('\t');
+        out.write(sentence.words.get(i)); out.write('\t');
+        out.write(sentence.posTags.get(i)); out.write('\t');
+        out.write(parse[i]); out.write('\t');
+        out.write("-\t-\t-\t");
+        out.write(column(sentence.speakersOfWord.get(i))); out.write('\t');
+        out.write(ner[i]); out.write('\t');
+        out.write(coref[i]); out.write('\n');
+      }
+      out.write('\n');
+    }
+    out.write("#end document\n");
+    out.flush();
+    documents += 1;
+  }
+
+  public int documents(){ return documents; }
+
+  public void close() throws IOException {
+    out.close();
+  }
+
+  private static String column(String value){
+    if(value == null || value.length() == 0){ return "-"; }
+    return value.replaceAll("\\s", "_");
+  }
+
+  /**
+   * The parse bit of each token: the tree with its part of speech and word replaced by *.
+   * If the tree does not match the sentence, every bit is "-".
+   */
+  private static String[] parseBits(Sentence sentence){
+    String[] bits = new String[sentence.length()];
+    StringBuilder open = new StringBuilder();
+    int end = parseBits(sentence.parse, bits, 0, open);
+    if(end != bits.length){ Arrays.fill(bits, "-"); }
+    return bits;
+  }
+
+  private static int parseBits(Tree<String> tree, String[] bits, int index, StringBuilder open){
+    if(tree.isLeaf() || tree.isPreTerminal()){
+      if(index < bits.length){ bits[index] = open.toString() + "*"; }
+      open.setLength(0);
+      return index + 1;
+    }
+    open.append("(").append(tree.getLabel());
+    int start = index;
+    for(Tree<String> child : tree.getChildren()){
+      index = parseBits(child, bits, index, open);
+    }
+    if(index == start){
+      open.setLength(0);
+    } else if(index <= bits.length){
+      bits[index-1] = bits[index-1] + ")";
+    }
+    return index;
+  }
+
+  /**
+   * The named entity bit of each token, with adjacent tokens of the same type
+   * taken to be one entity.
+   */
+  private static String[] nerBits(Sentence sentence){
+    String[] bits = new String[sentence.length()];
+    for(int i=0; i<bits.length; i++){
+      String tag = sentence.nerTags.get(i);
+      if(tag == null || tag.equals("O")){ bits[i] = "*"; continue; }
+      boolean begins = i == 0 || !tag.equals(sentence.nerTags.get(i-1));
+      boolean ends = i == bits.length - 1 || !tag.equals(sentence.nerTags.get(i+1));
+      bits[i] = (begins ? "(" + tag : "") + "*" + (ends ? ")" : "");
+    }
+    return bits;
+  }
+
+  /**
+   * The coreference bit of each token: clusters opening here (longest span first),
+   * then single-token mentions, then clusters closing here (shortest span first).
+   */
+  private static String[] corefBits(Sentence sentence, List<Mention> mentions,
+                                    Map<Mention,Entity> entityOf, Map<Entity,Integer> clusterIndex){
+    List<Mention> byStart = new ArrayList<Mention>(mentions);
+    Collections.sort(byStart, new Comparator<Mention>(){
+      public int compare(Mention a, Mention b) {
+        if(a.beginIndexInclusive != b.beginIndexInclusive){ return a.beginIndexInclusive - b.beginIndexInclusive; }
+        return b.endIndexExclusive - a.endIndexExclusive;
+      }
+    });
+    StringBuilder[] opens = new StringBuilder[sentence.length()];
+    StringBuilder[] singles = new StringBuilder[sentence.length()];
+    StringBuilder[] closes = new StringBuilder[sentence.length()];
+    for(Mention m : byStart){
+      int cluster = clusterIndex.get(entityOf.get(m));
+      int last = m.endIndexExclusive - 1;
+      if(m.beginIndexInclusive == last){
+        singles[last] = append(singles[last], "(" + cluster + ")");
+      } else {
+        opens[m.beginIndexInclusive] = append(opens[m.beginIndexInclusive], "(" + cluster);
+        closes[last] = prepend(closes[last], cluster + ")");
+      }
+    }
+    String[] bits = new String[sentence.length()];
+    for(int i=0; i<bits.length; i++){
+      StringBuilder b = null;
+      if(opens[i] != null){ b = append(b, opens[i].toString()); }
+      if(singles[i] != null){ b = append(b, singles[i].toString()); }
+      if(closes[i] != null){ b = append(b, closes[i].toString()); }
+      bits[i] = b == null ? "-" : b.toString();
+    }
+    return bits;
+  }
+
+  private static StringBuilder append(StringBuilder b, String part){
+    if(b == null){ return new StringBuilder(part); }
+    return b.append("|").append(part);
+  }
+
+  private static StringBuilder prepend(StringBuilder b, String part){
+    if(b == null){ return new StringBuilder(part); }
+    return b.insert(0, part + "|");
+  }
+}
@@ -0,0 +1,364 @@
+package cs224n.assignments;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.coref.*;
+import cs224n.corefsystems.CoreferenceSystem;
+import cs224n.corefsystems.ModelIO;
+import cs224n.corefsystems.PersistentModel;
+import cs224n.util.*;
+import edu.stanford.nlp.util.logging.Redwood;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Keeps a trained coreference system in memory, and runs it on documents
+ * sent over HTTP; this saves starting a JVM, loading the lexicons and
+ * training the system for every batch of documents.
+ *
+ * <p>
+ * <code>POST /coref</code> takes one or more documents in the .dat encoding,
+ * one after the other, each ending with its "(end gold clusters)" line.
+ * Documents from concurrent requests are grouped into small batches
+ * (see -batchSize and -batchMillis) and run on a pool of -threads workers.
+ * The response is streamed back as each document finishes, in the order the
+ * documents were sent; each document is a header line
+ * <code># [document id]</code>, followed by one line per mention:
+ * <pre>
+ *   [mention index] TAB [cluster index] TAB [sentence index] TAB [begin] TAB [end] TAB [text]
+ * </pre>
+ * Mentions are in document order, and clusters are numbered in order of their
+ * first mention. By default the gold mentions are clustered;
+ * <code>POST /coref?mentions=predicted</code> clusters the predicted mentions instead.
+ * If a document fails once the response has started, its clusters are replaced
+ * by a line <code>#error [message]</code>. A request body larger than
+ * -maxRequestMB is refused with status 413.
+ * </p>
+ *
+ * <p>
+ * At most -connections requests are handled at once; further connections
+ * wait for one of them to finish.
+ * </p>
+ *
+ * <p>
+ * <code>GET /status</code> reports the number of documents and batches served.
+ * </p>
+ *
+ * Usage: java cs224n.assignments.CoreferenceServer -model [system]
+ *          (-loadModel [file] | -path [data path] [-documents 100] [-format text|binary|pack])
+ *          [-port 8224] [-threads N] [-batchSize 8] [-batchMillis 5] [-connections 4N] [-maxRequestMB 16]
+ */
+public class CoreferenceServer {
+  public static final String END_OF_DATUM = "(end gold clusters)";
+
+  private final CoreferenceTester<CoreferenceSystem> tester;
+  private final MicroBatcher<Pair<SerializedDatum,String>,String> batcher;
+  private final long startTime = System.currentTimeMillis();
+  private long requests = 0;
+  private long documents = 0;
+  private long errors = 0;
+
+  public CoreferenceServer(CoreferenceSystem system, int numThreads, int batchSize, long batchMillis){
+    this.tester = new CoreferenceTester<CoreferenceSystem>(system);
+    this.batcher = new MicroBatcher<Pair<SerializedDatum,String>,String>(new MicroBatcher.Processor<Pair<SerializedDatum,String>,String>(){
+      public String process(Pair<SerializedDatum,String> request) {
+        try {
+          return clusters(request.getFirst(), request.getSecond());
+        } finally {
+          Redwood.finishThread();
+        }
+      }
+    }, numThreads, batchSize, batchMillis);
+  }
+
+  /**
+   * Run coreference on a document, and render its clusters
+   * @param datum The document
+   * @param mentionType Either "gold" or "predicted"
+   * @return The lines of the response for this document
+   */
+  private String clusters(SerializedDatum datum, String mentionType){
+    //--Run
+    Pair<SerializedDatum,Collection<ClusteredMention>> result = tester.runDocument(datum, mentionType);
+    Document doc = datum.document;
+    //--Render
+    //(index the guess)
+    Map<Mention,Entity> entityOf = new HashMap<Mention,Entity>();
+    for(ClusteredMention m : result.getSecond()){ entityOf.put(m.mention, m.entity); }
+    Map<Sentence,Integer> sentenceIndex = new IdentityHashMap<Sentence,Integer>();
+    for(int i=0; i<doc.sentences.size(); i++){ sentenceIndex.put(doc.sentences.get(i), i); }
+    Map<Entity,Integer> clusterIndex = new IdentityHashMap<Entity,Integer>();
+    //(print)
+    StringBuilder b = new StringBuilder();
+    b.append("# ").append(doc.id).append("\n");
+    List<Mention> mentions = doc.getMentions();
+    for(int i=0; i<mentions.size(); i++){
+      Mention m = mentions.get(i);
+      Entity e = entityOf.get(m);
+      Integer cluster = clusterIndex.get(e);
+      if(cluster == null){
+        cluster = clusterIndex.size();
+        clusterIndex.put(e, cluster);
+      }
+      b.append(i).append("\t").append(cluster).append("\t").append(sentenceIndex.get(m.sentence)).append("\t")
+          .append(m.beginIndexInclusive).append("\t").append(m.endIndexExclusive).append("\t").append(m.gloss()).append("\n");
+    }
+    return b.toString();
+  }
+
+  /**
+   * Split a request body into the documents in it
+   * @param body The request body; a sequence of .dat encoded documents
+   * @return The decoded documents
+   */
+  public static List<SerializedDatum> parse(String body){
+    List<SerializedDatum> rtn = new ArrayList<SerializedDatum>();
+    body = body.replace("\r\n", "\n");
+    int start = 0;
+    while(true){
+      //(skip whitespace between documents)
+      while(start < body.length() && Character.isWhitespace(body.charAt(start))){ start += 1; }
+      if(start == body.length()){ break; }
+      //(the .dat files don't end in a newline, so documents may be run together)
+      int end = body.indexOf(END_OF_DATUM, start);
+      if(end < 0){ throw new IllegalStateException("Could not deserialize: document does not end with " + END_OF_DATUM); }
+      end += END_OF_DATUM.length();
+      rtn.add(SerializedDatum.decode(body.substring(start, end)));
+      start = end;
+    }
+    return rtn;
+  }
+
+  /**
+   * Read a request body, up to a limit
+   * @param in The body
+   * @param maxBytes The largest body to accept
+   * @return The body, or null if it is longer than the limit
+   */
+  private static String readBody(InputStream in, long maxBytes) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while((read = in.read(buffer)) >= 0){
+      if(bytes.size() + read > maxBytes){ return null; }
+      bytes.write(buffer, 0, read);
+    }
+    return bytes.toString("UTF-8");
+  }
+
+  private class CorefHandler implements HttpHandler {
+    private final long maxRequestBytes;
+    private CorefHandler(long maxRequestBytes){ this.maxRequestBytes = maxRequestBytes; }
+
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        //--Parse Request
+        if(!exchange.getRequestMethod().equalsIgnoreCase("POST")){
+          respond(exchange, 405, "POST documents to /coref\n");
+          return;
+        }
+        String mentionType = "gold";
+        String query = exchange.getRequestURI().getQuery();
+        if(query != null){
+          for(String param : query.split("&")){
+            if(param.startsWith("mentions=")){ mentionType = param.substring("mentions=".length()); }
+          }
+        }
+        if(!mentionType.equals("gold") && !mentionType.equals("predicted")){
+          respond(exchange, 400, "Unknown mention type: " + mentionType + " (must be gold or predicted)\n");
+          return;
+        }
+        //(refuse large bodies before reading them, if their length is given)
+        String length = exchange.getRequestHeaders().getFirst("Content-Length");
+        String body = null;
+        try {
+          if(length == null || Long.parseLong(length.trim()) <= maxRequestBytes){
+            body = readBody(exchange.getRequestBody(), maxRequestBytes);
+          }
+        } catch (NumberFormatException e) {
+          respond(exchange, 400, "Bad Content-Length: " + length + "\n");
+          return;
+        }
+        if(body == null){
+          synchronized(CoreferenceServer.this){ errors += 1; }
+          respond(exchange, 413, "Request body is larger than " + maxRequestBytes + " bytes\n");
+          return;
+        }
+        List<SerializedDatum> data;
+        try {
+          data = parse(body);
+        } catch (RuntimeException e) {
+          synchronized(CoreferenceServer.this){ errors += 1; }
+          respond(exchange, 400, "Could not read documents: " + e.getMessage() + "\n");
+          return;
+        }
+        //--Submit
+        List<Future<String>> results = new ArrayList<Future<String>>(data.size());
+        for(SerializedDatum datum : data){
+          results.add(batcher.submit(Pair.make(datum, mentionType)));
+        }
+        synchronized(CoreferenceServer.this){
+          requests += 1;
+          documents += data.size();
+        }
+        //--Stream Response
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        Writer out = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+        for(Future<String> result : results){
+          try {
+            out.write(result.get());
+          } catch (ExecutionException e) {
+            synchronized(CoreferenceServer.this){ errors += 1; }
+            out.write("#error " + e.getCause() + "\n");
+          }
+          out.flush();
+        }
+        out.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+
+  private class StatusHandler implements HttpHandler {
+    public void handle(HttpExchange exchange) throws IOException {
+      StringBuilder b = new StringBuilder();
+      synchronized(CoreferenceServer.this){
+        b.append("uptime:    ").append((System.currentTimeMillis() - startTime) / 1000).append("s\n");
+        b.append("requests:  ").append(requests).append("\n");
+        b.append("documents: ").append(documents).append("\n");
+        b.append("errors:    ").append(errors).append("\n");
+      }
+      b.append("batches:   ").append(batcher).append("\n");
+      respond(exchange, 200, b.toString());
+      exchange.close();
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+    byte[] bytes = text.getBytes("UTF-8");
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    OutputStream out = exchange.getResponseBody();
+    out.write(bytes);
+    out.close();
+  }
+
+  /**
+   * Start serving on the given port; this returns once the server is listening.
+   * @param port The port to listen on
+   * @param connections The most requests to handle at once
+   * @param maxRequestBytes The largest request body to accept
+   * @return The running HTTP server
+   */
+  public HttpServer start(int port, int connections, long maxRequestBytes) throws IOException {
+    if(connections <= 0){ throw new IllegalArgumentException("Number of connections must be positive: " + connections); }
+    if(maxRequestBytes <= 0){ throw new IllegalArgumentException("Request size limit must be positive: " + maxRequestBytes); }
+    HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext("/coref", new CorefHandler(maxRequestBytes));
+    server.createContext("/status", new StatusHandler());
+    server.setExecutor(Executors.newFixedThreadPool(connections, new ThreadFactory(){
+      private int count = 0;
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "http-" + (count++));
+        t.setDaemon(true);
+        return t;
+      }
+    }));
+    //(documents run concurrently on the batch workers, each of which finishes its Redwood thread per document)
+    Redwood.startThreads("Serving");
+    server.start();
+    return server;
+  }
+
+  /**
+   * Stop taking documents, and finish the ones already queued.
+   */
+  public void close(){
+    batcher.close();
+    Redwood.endThreads("Serving");
+  }
+
+  public static void main(String[] args) throws IOException {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    int port = Integer.parseInt(props.getProperty("port", "8224"));
+    int numThreads = Integer.parseInt(props.getProperty("threads", "" + Runtime.getRuntime().availableProcessors()));
+    int batchSize = Integer.parseInt(props.getProperty("batchSize", "8"));
+    long batchMillis = Long.parseLong(props.getProperty("batchMillis", "5"));
+    int connections = Integer.parseInt(props.getProperty("connections", "" + (4 * Math.max(1, numThreads))));
+    long maxRequestBytes = Long.parseLong(props.getProperty("maxRequestMB", "16")) * 1024L * 1024L;
+    //(the lexicons are read from the data path, even when loading a model)
+    CoreferenceTester.dataPath = props.getProperty("path", CoreferenceTester.dataPath);
+    //(a system that trains on -threads threads uses as many as the server does)
+    props.setProperty("threads", "" + Math.max(1, numThreads));
+
+    //--Create Coreference Class
+    System.out.print("Creating model...");
+    CoreferenceSystem system = CoreferenceTester.createSystem(props.getProperty("model", "baseline"));
+    CoreferenceTester.configure(system, props);
+    System.out.println("done");
+    CoreferenceServer server = new CoreferenceServer(system, numThreads, batchSize, batchMillis);
+
+    //--Train, or Load a Trained Model
+    if(props.containsKey("loadModel")){
+      File loadModel = new File(props.getProperty("loadModel"));
+      if(!(system instanceof PersistentModel)){
+        System.out.println("ERROR: " + system.getClass().getSimpleName() + " cannot save or load models");
+        System.exit(1);
+      }
+      if(!loadModel.isFile()){
+        System.out.println("ERROR: no such model: " + loadModel);
+        System.exit(1);
+      }
+      System.out.print("Loading model [" + loadModel + "]...");
+      ModelIO.load((PersistentModel) system, loadModel);
+      System.out.println("done");
+    } else {
+      String dataPath = CoreferenceTester.dataPath;
+      int numDocs = Integer.parseInt(props.getProperty("documents", "100"));
+      String format = props.getProperty("format", "text");
+      if(!CoreferenceTester.setFormat(format)){
+        System.out.println("ERROR: unknown data format: " + format + " (must be text, binary, or pack)");
+        System.exit(1);
+      }
+      CachedList<SerializedDatum> train = null;
+      try {
+        train = CoreferenceTester.cached(CoreferenceTester.getData(dataPath, DataType.TRAIN, numDocs), props);
+      } catch(IllegalArgumentException e) {
+        System.out.println("ERROR: " + e.getMessage());
+        System.exit(1);
+      }
+      System.out.println("Training on " + train.size() + " documents [" + dataPath + "]...");
+      server.tester.trainSystem(train, props);
+      System.out.println("done");
+    }
+
+    //--Serve
+    //(printed before serving, since once serving only the batch workers may log)
+    System.out.println("Serving " + system.getClass().getSimpleName() + " on port " + port +
+        " [" + numThreads + " threads; batches of up to " + batchSize + " documents, " + batchMillis + "ms; " +
+        connections + " connections; requests of up to " + (maxRequestBytes / (1024 * 1024)) + " MB]");
+    final HttpServer http = server.start(port, connections, maxRequestBytes);
+    final CoreferenceServer toClose = server;
+    Runtime.getRuntime().addShutdownHook(new Thread(){
+      public void run() {
+        http.stop(1);
+        toClose.close();
+        System.out.println("Served " + toClose.batcher);
+      }
+    });
+  }
+}
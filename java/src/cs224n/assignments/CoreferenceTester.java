@@ -1,18 +1,25 @@
 package cs224n.assignments;
 
+import cs224n.coref.BlockingIndex;
 import cs224n.coref.ClusteredMention;
 import cs224n.coref.Document;
 import cs224n.coref.Entity;
 import cs224n.coref.Mention;
+import cs224n.coref.Sentence;
 import cs224n.corefsystems.BaselineCoreferenceSystem;
+import cs224n.corefsystems.Configurable;
 import cs224n.corefsystems.CoreferenceSystem;
+import cs224n.corefsystems.ModelIO;
+import cs224n.corefsystems.PersistentModel;
 import cs224n.util.*;
+import edu.stanford.nlp.util.logging.Redwood;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.Serializable;
+import java.io.*;
 import java.util.*;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * The framework for running your coreference system.
@@ -27,8 +34,9 @@ import java.util.PriorityQueue;
 public class CoreferenceTester<SYS extends CoreferenceSystem> {
   private static final int NUM_TEST_EXAMPLES = 202;
   private static final int NUM_DEV_EXAMPLES = 63;
-  private static final int MAX_TRAIN_EXAMPLES = 1600;
   private static final boolean plaintext = true;
+  private static boolean binary = false;
+  private static boolean pack = false;
 
   public static String dataPath = "/afs/ir/class/cs224n/data/pa3";
 
@@ -37,6 +45,9 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
   }
 
   public static class SerializedDatum implements Serializable, Decodable {
+    public static final int BINARY_MAGIC = 0x434f5246;
+    public static final int BINARY_VERSION = 1;
+
     public final Document document;
     public final List<Mention> goldMentions;
     public final List<Mention> predictedMentions;
@@ -48,6 +59,41 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       this.goldClusters = goldClusters;
     }
 
+    /**
+     * A rough estimate of the memory this datum holds on to, used to budget the document cache.
+     * Most of it is per token: five strings, a Token, and a leaf and preterminal in the parse.
+     * @return The estimated size of the datum, in bytes
+     */
+    public long estimatedBytes(){
+      long tokens = 0;
+      for(Sentence s : document.sentences){ tokens += s.length(); }
+      return 512L * tokens + 128L * (goldMentions.size() + predictedMentions.size());
+    }
+
+    /**
+     * Get a datum ready to be handed to a system: clear any clusters left on its mentions
+     * by a previous pass over it, and set the document's mentions.
+     * @param mentionType Either "gold" or "predicted"
+     * @return This datum
+     */
+    public SerializedDatum prepare(String mentionType){
+      //(get mentions)
+      List<Mention> mentions = null;
+      if(mentionType.equalsIgnoreCase("gold")){
+        mentions = goldMentions;
+      } else if(mentionType.equalsIgnoreCase("predicted")) {
+        mentions = predictedMentions;
+      } else {
+        throw new IllegalArgumentException("Unknown mention extractor: " + mentionType);
+      }
+      //(reset clusters)
+      for(Mention m : goldMentions){ m.removeCoreference(); }
+      for(Mention m : predictedMentions){ m.removeCoreference(); }
+      //(set mentions)
+      document.setMentions(mentions);
+      return this;
+    }
+
     public String encode() {
       StringBuilder b = new StringBuilder();
       b.append("---------gloss--------\n");
@@ -127,11 +173,84 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       if(index != lines.length){ throw new IllegalStateException("Extra lines in file: " + index + " read of " + lines.length); }
       return new SerializedDatum(doc,goldMentions,predictedMentions,goldCLusters);
     }
+
+    /**
+     * Write this datum in the binary corpus format: a header, a length-prefixed
+     * string table, and then the document, mentions and clusters, with every
+     * string written as its index in the table and every tree written in preorder.
+     * @param out The output to write to
+     */
+    public void encodeBinary(DataOutput out) throws IOException {
+      //--Body
+      Indexer<String> strings = new Indexer<String>();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream body = new DataOutputStream(bytes);
+      //(document)
+      document.encodeBinary(body, strings);
+      //(mentions)
+      IOUtils.writeVarInt(body, goldMentions.size());
+      for(Mention m : goldMentions){ m.encodeBinary(body, strings); }
+      IOUtils.writeVarInt(body, predictedMentions.size());
+      for(Mention m : predictedMentions){ m.encodeBinary(body, strings); }
+      //(clusters)
+      Map<Mention,Integer> goldIndices = new HashMap<Mention,Integer>();
+      for(int i=0; i<goldMentions.size(); i++){ goldIndices.put(goldMentions.get(i), i); }
+      IOUtils.writeVarInt(body, goldClusters.size());
+      for(Entity e : goldClusters){ e.encodeBinary(body, goldIndices); }
+      body.flush();
+      //--Header
+      out.writeInt(BINARY_MAGIC);
+      out.writeInt(BINARY_VERSION);
+      //--String Table
+      IOUtils.writeVarInt(out, strings.size());
+      for(String str : strings){ IOUtils.writeString(out, str); }
+      //--Write Body
+      out.write(bytes.toByteArray());
+    }
+
+    public static SerializedDatum decodeBinary(DataInput in) throws IOException {
+      //--Header
+      if(in.readInt() != BINARY_MAGIC){ throw new IllegalStateException("Could not deserialize: not a binary datum"); }
+      int version = in.readInt();
+      if(version != BINARY_VERSION){ throw new IllegalStateException("Could not deserialize: unknown binary version " + version); }
+      //--String Table
+      int numStrings = IOUtils.readVarInt(in);
+      List<String> strings = new ArrayList<String>(numStrings);
+      for(int i=0; i<numStrings; i++){ strings.add(IOUtils.readString(in)); }
+      //--Document
+      Document doc = Document.decodeBinary(in, strings);
+      //--Mentions
+      int numGold = IOUtils.readVarInt(in);
+      List<Mention> goldMentions = new ArrayList<Mention>(numGold);
+      for(int i=0; i<numGold; i++){ goldMentions.add(Mention.decodeBinary(in, strings, doc)); }
+      int numPredicted = IOUtils.readVarInt(in);
+      List<Mention> predictedMentions = new ArrayList<Mention>(numPredicted);
+      for(int i=0; i<numPredicted; i++){ predictedMentions.add(Mention.decodeBinary(in, strings, doc)); }
+      //--Gold Clusters
+      int numClusters = IOUtils.readVarInt(in);
+      List<Entity> goldClusters = new ArrayList<Entity>(numClusters);
+      for(int i=0; i<numClusters; i++){ goldClusters.add(Entity.decodeBinary(in, goldMentions)); }
+      //--Return
+      return new SerializedDatum(doc,goldMentions,predictedMentions,goldClusters);
+    }
   }
 
+  /**
+   * Accumulates MUC and B^3 scores over a collection of documents.
+   * Each document is scored as soon as it is entered, and only the running
+   * numerators and denominators are kept; the entities themselves are not retained.
+   */
   public static class CoreferenceScore {
-    private Collection<Entity> responses = new ArrayList<Entity>();
-    private Collection<Entity> keys = new ArrayList<Entity>();
+    //(MUC counts)
+    private long mucPrecisionNumer = 0;
+    private long mucPrecisionDenom = 0;
+    private long mucRecallNumer = 0;
+    private long mucRecallDenom = 0;
+    //(B^3 counts)
+    private double b3PrecisionNumer = 0.0;
+    private double b3PrecisionDenom = 0.0;
+    private double b3RecallNumer = 0.0;
+    private double b3RecallDenom = 0.0;
 
 
     public void report(){
@@ -146,16 +265,10 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     }
 
     public double precisionMUC(){
-      double prec = precisionMUC(responses,keys);
-//      double check = recallMUC(keys, responses);
-//      if(Math.abs(prec-check) > 1e-6){ throw new IllegalStateException("MUC scores do not agree (not your fault)!"); }
-      return prec;
+      return mucScore(mucPrecisionNumer, mucPrecisionDenom);
     }
     public double recallMUC(){
-      double recall = precisionMUC(keys,responses);
-//      double check = recallMUC(responses, keys);
-//      if(Math.abs(recall-check) > 1e-6){ throw new IllegalStateException("MUC scores do not agree (not your fault)!"); }
-      return recall;
+      return mucScore(mucRecallNumer, mucRecallDenom);
     }
     public double f1MUC(){
       double prec = precisionMUC();
@@ -164,10 +277,10 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     }
 
     public double precisionB3(){
-      return precisionB3(responses,keys);
+      return b3Score(b3PrecisionNumer, b3PrecisionDenom);
     }
     public double recallB3(){
-      return precisionB3(keys,responses);
+      return b3Score(b3RecallNumer, b3RecallDenom);
     }
     public double f1B3(){
       double prec = precisionB3();
@@ -175,6 +288,21 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       return 2.0*(prec*rec)/(prec+rec);
     }
 
+    private static double mucScore(long numer, long denom){
+      if(denom == 0){
+        if(numer != 0){ throw new IllegalStateException("MUC precisions is hella broken (not your fault!)"); }
+        return 1.0;
+      }
+      return ((double) numer) / ((double) denom);
+    }
+
+    private static double b3Score(double numer, double denom){
+      if(numer > denom || numer < 0 || denom <= 0){
+        throw new IllegalStateException("Bad B Cubed score about to be returned (not your fault)!");
+      }
+      return numer / denom;
+    }
+
     /**
      * Adapted from CoreNLP MUCScorer recall() method.
      * This should agree with precisionMUC().
@@ -210,8 +338,11 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
 
     /**
      * Adapted from the JavaNLP code
+     * @param guesses The system's guessed clusters
+     * @param golds The true clusters
+     * @return The B^3 precision numerator and denominator, as {numer, denom}
      */
-    private static double precisionB3(Collection<Entity> guesses, Collection<Entity> golds){
+    public static double[] precisionB3(Collection<Entity> guesses, Collection<Entity> golds){
       //--Variables
       //(gold map)
       Map<Mention,Entity> goldMap = new HashMap<Mention,Entity>();
@@ -263,20 +394,20 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
         numer += n;
         denom += (double) doc.getMentions().size();
       }
-      //--Return Score
-      if(numer > denom || numer < 0 || denom <= 0){
+      //--Return Counts
+      if(numer > denom || numer < 0){
         throw new IllegalStateException("Bad B Cubed score about to be returned (not your fault)!");
       }
-      return numer / denom;
+      return new double[]{ numer, denom };
     }
 
     /**
      * As per Vilain 1995: "A Model Theoretic Coreference Scoring Scheme" (http://acl.ldc.upenn.edu/M/M95/M95-1005.pdf)
      * @param responses The system's guessed clusters
      * @param keys The true clusters
-     * @return A precision (between 0 and 1) score
+     * @return The MUC precision numerator and denominator, as {numer, denom}
      */
-    private static double precisionMUC(Collection<Entity> responses, Collection<Entity> keys){
+    public static int[] precisionMUC(Collection<Entity> responses, Collection<Entity> keys){
       //--Auxilliary Structures
       //(populate key map)
       Map<Mention,Entity> keyMap = new HashMap<Mention,Entity>();
@@ -301,11 +432,6 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
             partitions.add(keyMap.get(m));
           }
         }
-        //(debug)
-        int numAccountedFor = 0;
-        for(Entity e : partitions) {
-          numAccountedFor += e.size();
-        }
         //(increment numerator)
         int p = partitions.size() + extraPartitions;
         int S = response.size();
@@ -320,19 +446,107 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       }
       //--Error Checks
       if(numer > denom){ throw new IllegalStateException("MUC precision is broken (not your fault!)"); }
-      if(denom == 0){
-        if(numer != 0){ throw new IllegalStateException("MUC precisions is hella broken (not your fault!)"); }
-        return 1.0;
-      }
+      if(denom == 0 && numer != 0){ throw new IllegalStateException("MUC precisions is hella broken (not your fault!)"); }
       //--Return
-      return ((double) numer) / ((double) denom);
+      return new int[]{ numer, denom };
     }
 
+    /**
+     * Score a document, and fold it into the running totals.
+     * @param doc The document being scored
+     * @param guess The system's clustered mentions for the document
+     * @param gold The true clusters for the document
+     * @return This score
+     */
     public CoreferenceScore enter(Document doc, Collection<ClusteredMention> guess, Collection<Entity> gold){
-      responses.addAll(Entity.fromMentions(guess));
-      keys.addAll(gold);
+      Collection<Entity> responses = Entity.fromMentions(guess);
+      //(MUC)
+      int[] mucPrecision = precisionMUC(responses, gold);
+      int[] mucRecall = precisionMUC(gold, responses);
+      mucPrecisionNumer += mucPrecision[0];
+      mucPrecisionDenom += mucPrecision[1];
+      mucRecallNumer += mucRecall[0];
+      mucRecallDenom += mucRecall[1];
+      //(B^3)
+      double[] b3Precision = precisionB3(responses, gold);
+      double[] b3Recall = precisionB3(gold, responses);
+      b3PrecisionNumer += b3Precision[0];
+      b3PrecisionDenom += b3Precision[1];
+      b3RecallNumer += b3Recall[0];
+      b3RecallDenom += b3Recall[1];
       return this;
     }
+
+    /**
+     * Fold another score's totals into this one.
+     * Merging the scores of single documents in document order gives exactly
+     * the score of entering those documents in that order.
+     * @param other The score to add
+     * @return This score
+     */
+    public CoreferenceScore merge(CoreferenceScore other){
+      mucPrecisionNumer += other.mucPrecisionNumer;
+      mucPrecisionDenom += other.mucPrecisionDenom;
+      mucRecallNumer += other.mucRecallNumer;
+      mucRecallDenom += other.mucRecallDenom;
+      b3PrecisionNumer += other.b3PrecisionNumer;
+      b3PrecisionDenom += other.b3PrecisionDenom;
+      b3RecallNumer += other.b3RecallNumer;
+      b3RecallDenom += other.b3RecallDenom;
+      return this;
+    }
+
+    /**
+     * Write the running totals (the sufficient statistics of the score) on one line.
+     * Doubles are written in hexadecimal, so they are read back exactly.
+     */
+    public String encode(){
+      return mucPrecisionNumer + " " + mucPrecisionDenom + " " + mucRecallNumer + " " + mucRecallDenom + " " +
+          Double.toHexString(b3PrecisionNumer) + " " + Double.toHexString(b3PrecisionDenom) + " " +
+          Double.toHexString(b3RecallNumer) + " " + Double.toHexString(b3RecallDenom);
+    }
+
+    /**
+     * The running totals, as {MUC precision numerator, denominator, MUC recall numerator,
+     * denominator, B^3 precision numerator, denominator, B^3 recall numerator, denominator}.
+     */
+    public double[] counts(){
+      return new double[]{ mucPrecisionNumer, mucPrecisionDenom, mucRecallNumer, mucRecallDenom,
+          b3PrecisionNumer, b3PrecisionDenom, b3RecallNumer, b3RecallDenom };
+    }
+
+    /**
+     * A score with the given totals
+     * @param counts The totals, in the order of counts()
+     * @param offset Where the totals start in the array
+     */
+    public static CoreferenceScore fromCounts(double[] counts, int offset){
+      CoreferenceScore score = new CoreferenceScore();
+      score.mucPrecisionNumer = (long) counts[offset];
+      score.mucPrecisionDenom = (long) counts[offset+1];
+      score.mucRecallNumer = (long) counts[offset+2];
+      score.mucRecallDenom = (long) counts[offset+3];
+      score.b3PrecisionNumer = counts[offset+4];
+      score.b3PrecisionDenom = counts[offset+5];
+      score.b3RecallNumer = counts[offset+6];
+      score.b3RecallDenom = counts[offset+7];
+      return score;
+    }
+
+    public static CoreferenceScore decode(String encoded){
+      String[] fields = encoded.trim().split(" ");
+      if(fields.length != 8){ throw new IllegalStateException("Could not deserialize score: " + encoded); }
+      CoreferenceScore score = new CoreferenceScore();
+      score.mucPrecisionNumer = Long.parseLong(fields[0]);
+      score.mucPrecisionDenom = Long.parseLong(fields[1]);
+      score.mucRecallNumer = Long.parseLong(fields[2]);
+      score.mucRecallDenom = Long.parseLong(fields[3]);
+      score.b3PrecisionNumer = Double.parseDouble(fields[4]);
+      score.b3PrecisionDenom = Double.parseDouble(fields[5]);
+      score.b3RecallNumer = Double.parseDouble(fields[6]);
+      score.b3RecallDenom = Double.parseDouble(fields[7]);
+      return score;
+    }
   }
 
   public static String conllData(DataType type){
@@ -357,90 +571,323 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
 
   private SYS system;
 
-  private CoreferenceTester(SYS system){
+  CoreferenceTester(SYS system){
     this.system = system;
   }
 
-  public CoreferenceScore train(final File[] data, final Properties props){
+  public CoreferenceScore train(File[] data, Properties props){
+    return train(cached(datumLoader(data), props), props);
+  }
+
+  /**
+   * Train the system, and score it on its own training data.
+   * The same cache serves both passes, so documents held in it are not decoded twice.
+   * @param data The training documents
+   * @param props The tester's options
+   * @return The score on the training data
+   */
+  public CoreferenceScore train(final CachedList<SerializedDatum> data, final Properties props){
+    //--Train
+    trainSystem(data, props);
+    //--Test
+    CoreferenceScore score = test(data,props);
+    System.out.println("Training document cache: " + data);
+    //--Return
+    return score;
+  }
+
+  /**
+   * Train the system, without scoring it.
+   * @param data The training documents
+   * @param props The tester's options
+   */
+  void trainSystem(final CachedList<SerializedDatum> data, final Properties props){
     //--Create Data
     //(get properties)
     final String mentionType = props.getProperty("mentionExtractor", "gold");
     //(convert data)
-    Collection<Pair<Document, List<Entity>>> dataToPass = new WeakReferenceList<Pair<Document,List<Entity>>>(new WeakReferenceList.RefreshFunction<Pair<Document,List<Entity>>>(){
+    List<Pair<Document,List<Entity>>> dataToPass = new AbstractList<Pair<Document,List<Entity>>>(){
       public Pair<Document,List<Entity>> get(int i) {
-        File f = data[i];
-        SerializedDatum datum = getDatum(f);
-        //((get mentions))
-        List<Mention> mentions = null;
-        if(mentionType.equalsIgnoreCase("gold")){
-          mentions = datum.goldMentions;
-        } else if(mentionType.equalsIgnoreCase("predicted")) {
-          mentions = datum.predictedMentions;
-        } else {
-          throw new IllegalArgumentException("Unknown mention extractor: " + mentionType);
-        }
-        //((set mentions))
-        datum.document.setMentions(mentions);
-        //((sanity checks))
-        for(Entity e : datum.goldClusters){
-          if(e.size() == 0){ throw new IllegalStateException("Gold cluster has size 0 (not your fault)!"); }
-        }
-        //((return))
-        return Pair.make(datum.document, datum.goldClusters);
+        return forTraining(data.get(i), mentionType);
       }
       public int size() {
-        return data.length;
+        return data.size();
       }
-    });
+      @Override
+      public Iterator<Pair<Document,List<Entity>>> iterator() {
+        final Iterator<SerializedDatum> docs = data.iterator();
+        return new Iterator<Pair<Document,List<Entity>>>(){
+          public boolean hasNext() {
+            return docs.hasNext();
+          }
+          public Pair<Document,List<Entity>> next() {
+            return forTraining(docs.next(), mentionType);
+          }
+          public void remove() {
+            throw new UnsupportedOperationException("Remove is not supported");
+          }
+        };
+      }
+    };
+    //--Measure Blocking
+    //(how many gold antecedents blocking loses, so the window can be tuned)
+    BlockingIndex.Settings blocking = BlockingIndex.Settings.read(props);
+    if(blocking.enabled){
+      Profiler.Timer timer = Profiler.start("blocking");
+      System.out.println("Blocking on training data: " + BlockingIndex.measure(dataToPass, blocking.sentenceWindow));
+      timer.stop(data.size());
+    }
     //--Train
+    Profiler.Timer timer = Profiler.start("train");
     system.train(dataToPass);
-    //--Return
-    return test(data,props);
+    timer.stop(data.size());
+    if(data.lastPrefetcher() != null){
+      System.out.println("Training loader " + data.lastPrefetcher());
+    }
+  }
+
+  private static Pair<Document,List<Entity>> forTraining(SerializedDatum datum, String mentionType){
+    //(set mentions)
+    datum.prepare(mentionType);
+    //(sanity checks)
+    for(Entity e : datum.goldClusters){
+      if(e.size() == 0){ throw new IllegalStateException("Gold cluster has size 0 (not your fault)!"); }
+    }
+    //(return)
+    return Pair.make(datum.document, datum.goldClusters);
   }
 
   public CoreferenceScore test(File[] data, Properties props){
+    return test(cached(datumLoader(data), props), props);
+  }
+
+  /**
+   * Run the system over a set of documents, and score its output.
+   * @param data The documents to run on, by index
+   * @param props The tester's options
+   * @return The score on the documents
+   */
+  public CoreferenceScore test(final WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props){
+    return test(data, props, null);
+  }
+
+  /**
+   * Test the system, keeping the score of each document
+   * @param data The documents to run on, by index
+   * @param props The tester's options
+   * @param perDocument If not null, the score of each document is added to this list, in document order
+   * @return The score on the documents
+   */
+  public CoreferenceScore test(final WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props,
+                               final List<CoreferenceScore> perDocument){
     //--Variables
     //(get properties)
     String mentionType = props.getProperty("mentionExtractor", "gold");
+    int numThreads = Integer.parseInt(props.getProperty("threads", "1"));
+    int prefetch = Integer.parseInt(props.getProperty("prefetch", "0"));
     //(scorer)
-    CoreferenceScore score = new CoreferenceScore();
+    final CoreferenceScore score = new CoreferenceScore();
     //--Run Coreference
-    for(File f : data){
-      SerializedDatum datum = getDatum(f);
-      Document doc = datum.document;
-      //(get mentions)
-      List<Mention> mentions = null;
-      if(mentionType.equalsIgnoreCase("gold")){
-        mentions = datum.goldMentions;
-      } else if(mentionType.equalsIgnoreCase("predicted")) {
-        mentions = datum.predictedMentions;
-      } else {
-        throw new IllegalArgumentException("Unknown mention extractor: " + mentionType);
-      }
-      //(set mentions)
-      datum.document.setMentions(mentions);
-      //(run coreference)
-      Collection<ClusteredMention> guess = system.runCoreference(datum.document);
-      HashSet<ClusteredMention> uniqueCheck = new HashSet<ClusteredMention>();
-      for(ClusteredMention m : guess){ uniqueCheck.add(m); }
-      if(uniqueCheck.size() != guess.size()){
-        throw new IllegalStateException("You added the same mention to the return list twice");
+    if(numThreads <= 1){
+      //(case: single threaded)
+      PrefetchingIterator<SerializedDatum> prefetcher = prefetch > 0
+          ? new PrefetchingIterator<SerializedDatum>(data, prefetch, 1)
+          : null;
+      for(int i=0; i<data.size(); i++){
+        SerializedDatum datum = prefetcher != null ? prefetcher.next() : data.get(i);
+        Pair<SerializedDatum,Collection<ClusteredMention>> result = runDocument(datum, mentionType);
+        Profiler.Timer timer = Profiler.start("scoring");
+        enter(score, result, perDocument);
+        timer.stop(1);
       }
-      if(guess.size() != datum.document.getMentions().size()){
-        throw new IllegalStateException("You did not assign every entity to a cluster (returned a different sized list)");
+      if(prefetcher != null){
+        System.out.println("Testing loader " + prefetcher);
       }
-      if(!datum.document.areAllMentionsClustered()){
-        throw new IllegalStateException("You did not assign every entity to a cluster");
+    } else {
+      //(case: multithreaded)
+      //((scores are entered in document order, so they do not depend on the thread count))
+      try {
+        runInParallel(data, mentionType, numThreads, prefetch, "Testing", new ResultHandler(){
+          public void handle(Pair<SerializedDatum,Collection<ClusteredMention>> result){
+            Profiler.Timer timer = Profiler.start("scoring");
+            enter(score, result, perDocument);
+            timer.stop(1);
+          }
+        });
+      } catch (IOException e) {
+        throw new RuntimeException(e); //(scoring does no I/O)
       }
-      //(enter score)
-      Collection<Entity> gold = datum.goldClusters;
-      score.enter(datum.document, guess, gold);
     }
     //--Return
     return score;
   }
 
+  private static void enter(CoreferenceScore score, Pair<SerializedDatum,Collection<ClusteredMention>> result,
+                            List<CoreferenceScore> perDocument){
+    if(perDocument == null){
+      score.enter(result.getFirst().document, result.getSecond(), result.getFirst().goldClusters);
+    } else {
+      //(merging a document's score gives the same totals as entering it)
+      CoreferenceScore document = new CoreferenceScore().enter(result.getFirst().document, result.getSecond(), result.getFirst().goldClusters);
+      perDocument.add(document);
+      score.merge(document);
+    }
+  }
+
+  /**
+   * Score the documents [from, to) for a {@link ShardCoordinator}, writing each
+   * document's score on its own line as soon as the document is done.
+   * @param data The documents, by index
+   * @param from The first document to score
+   * @param to The end of the documents to score (exclusive)
+   * @param props The tester's options
+   * @param out The stream to write scores to
+   */
+  public void testShard(final WeakReferenceList.RefreshFunction<SerializedDatum> data, final int from, final int to,
+                        Properties props, PrintStream out){
+    String mentionType = props.getProperty("mentionExtractor", "gold");
+    int prefetch = Integer.parseInt(props.getProperty("prefetch", "0"));
+    WeakReferenceList.RefreshFunction<SerializedDatum> shard = new WeakReferenceList.RefreshFunction<SerializedDatum>(){
+      public SerializedDatum get(int i) { return data.get(from + i); }
+      public int size() { return to - from; }
+    };
+    PrefetchingIterator<SerializedDatum> prefetcher = prefetch > 0
+        ? new PrefetchingIterator<SerializedDatum>(shard, prefetch, 1)
+        : null;
+    for(int i=0; i<shard.size(); i++){
+      SerializedDatum datum = prefetcher != null ? prefetcher.next() : shard.get(i);
+      Pair<SerializedDatum,Collection<ClusteredMention>> result = runDocument(datum, mentionType);
+      Profiler.Timer timer = Profiler.start("scoring");
+      CoreferenceScore score = new CoreferenceScore().enter(result.getFirst().document, result.getSecond(), result.getFirst().goldClusters);
+      timer.stop(1);
+      out.println(ShardCoordinator.SCORE_PREFIX + (from + i) + " " + score.encode());
+      out.flush();
+    }
+  }
+
+  /**
+   * Run coreference on a set of documents, and write the guessed clusters of each
+   * as soon as it is done. Documents are not cached, and at most a few are
+   * held at once, so this runs in constant memory on any number of documents.
+   * @param data The documents to run on, by index
+   * @param out The writer to write the clusters to, in document order
+   * @param props The tester's options
+   */
+  public void predict(final WeakReferenceList.RefreshFunction<SerializedDatum> data, final ConllWriter out, Properties props) throws IOException {
+    //--Variables
+    final String mentionType = props.getProperty("mentionExtractor", "gold");
+    int numThreads = Integer.parseInt(props.getProperty("threads", "1"));
+    int prefetch = Integer.parseInt(props.getProperty("prefetch", "0"));
+    //--Run Coreference
+    if(numThreads <= 1){
+      //(case: single threaded)
+      PrefetchingIterator<SerializedDatum> prefetcher = prefetch > 0
+          ? new PrefetchingIterator<SerializedDatum>(data, prefetch, 1)
+          : null;
+      for(int i=0; i<data.size(); i++){
+        SerializedDatum datum = prefetcher != null ? prefetcher.next() : data.get(i);
+        Pair<SerializedDatum,Collection<ClusteredMention>> result = runDocument(datum, mentionType);
+        Profiler.Timer timer = Profiler.start("write");
+        out.write(result.getFirst().document, result.getSecond());
+        timer.stop(1);
+      }
+    } else {
+      //(case: multithreaded)
+      //((documents are written in document order))
+      runInParallel(data, mentionType, numThreads, prefetch, "Predicting", new ResultHandler(){
+        public void handle(Pair<SerializedDatum,Collection<ClusteredMention>> result) throws IOException {
+          Profiler.Timer timer = Profiler.start("write");
+          out.write(result.getFirst().document, result.getSecond());
+          timer.stop(1);
+        }
+      });
+    }
+  }
+
+  /**
+   * Receives the result of each document run by runInParallel(), in document order
+   */
+  private static interface ResultHandler {
+    public void handle(Pair<SerializedDatum,Collection<ClusteredMention>> result) throws IOException;
+  }
+
+  /**
+   * Run coreference on every document on a pool of threads, and hand each result
+   * to a handler on this thread, in document order. Only a bounded window of
+   * documents is in flight at once, so the document cache need hold only those.
+   * @param data The documents to run on, by index
+   * @param mentionType Either "gold" or "predicted"
+   * @param numThreads The number of threads to run documents on
+   * @param prefetch The prefetch depth, which widens the window
+   * @param name The name of the Redwood threaded section
+   * @param handler Receives the result of each document
+   */
+  private void runInParallel(final WeakReferenceList.RefreshFunction<SerializedDatum> data, final String mentionType,
+                             int numThreads, int prefetch, String name, ResultHandler handler) throws IOException {
+    int window = 2 * numThreads + prefetch;
+    ForkJoinPool pool = new ForkJoinPool(numThreads);
+    Redwood.startThreads(name);
+    try {
+      LinkedList<ForkJoinTask<Pair<SerializedDatum,Collection<ClusteredMention>>>> inFlight
+          = new LinkedList<ForkJoinTask<Pair<SerializedDatum,Collection<ClusteredMention>>>>();
+      int nextToSubmit = 0;
+      while(nextToSubmit < data.size() || !inFlight.isEmpty()){
+        while(inFlight.size() < window && nextToSubmit < data.size()){
+          final int index = nextToSubmit;
+          inFlight.addLast(pool.submit(new Callable<Pair<SerializedDatum,Collection<ClusteredMention>>>(){
+            public Pair<SerializedDatum,Collection<ClusteredMention>> call(){
+              try {
+                return runDocument(data.get(index), mentionType);
+              } finally {
+                Redwood.finishThread();
+              }
+            }
+          }));
+          nextToSubmit += 1;
+        }
+        handler.handle(inFlight.removeFirst().join());
+      }
+    } finally {
+      pool.shutdown();
+      Redwood.endThreads(name);
+    }
+  }
+
+  /**
+   * Run coreference on a document, and check that the system's output
+   * is well formed.
+   * This is safe to call from multiple threads, provided the system's runCoreference() is.
+   * @param datum The document to run on
+   * @param mentionType Either "gold" or "predicted"
+   * @return The document, along with the system's guessed clusters
+   */
+  Pair<SerializedDatum,Collection<ClusteredMention>> runDocument(SerializedDatum datum, String mentionType){
+    //(set mentions)
+    datum.prepare(mentionType);
+    //(run coreference)
+    Profiler.Timer timer = Profiler.start("inference");
+    Collection<ClusteredMention> guess = system.runCoreference(datum.document);
+    timer.stop(1);
+    HashSet<ClusteredMention> uniqueCheck = new HashSet<ClusteredMention>();
+    for(ClusteredMention m : guess){ uniqueCheck.add(m); }
+    if(uniqueCheck.size() != guess.size()){
+      throw new IllegalStateException("You added the same mention to the return list twice");
+    }
+    if(guess.size() != datum.document.getMentions().size()){
+      throw new IllegalStateException("You did not assign every entity to a cluster (returned a different sized list)");
+    }
+    if(!datum.document.areAllMentionsClustered()){
+      throw new IllegalStateException("You did not assign every entity to a cluster");
+    }
+    //(return)
+    return Pair.make(datum, guess);
+  }
+
   public String debug(File[] data, Properties props){
+    return debug(cached(datumLoader(data), props), props);
+  }
+
+  public String debug(WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props){
     //--Variables
     //(get properties)
     String mentionType = props.getProperty("mentionExtractor", "gold");
@@ -456,22 +903,13 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
     //(documents read)
     int numDocumentsRead = 0;
     //--Run Coreference
-    for(File f : data){
+    for(int i=0; i<data.size(); i++){
       if(numDocumentsRead >= numDocuments){ break; }
       numDocumentsRead += 1;
-      SerializedDatum datum = getDatum(f);
+      SerializedDatum datum = data.get(i);
       Document doc = datum.document;
-      //(get mentions)
-      List<Mention> mentions = null;
-      if(mentionType.equalsIgnoreCase("gold")){
-        mentions = datum.goldMentions;
-      } else if(mentionType.equalsIgnoreCase("predicted")) {
-        mentions = datum.predictedMentions;
-      } else {
-        throw new IllegalArgumentException("Unknown mention extractor: " + mentionType);
-      }
       //(set mentions)
-      datum.document.setMentions(mentions);
+      datum.prepare(mentionType);
       //(run coreference)
       Collection<ClusteredMention> guess = system.runCoreference(datum.document);
       //(enter score)
@@ -482,13 +920,12 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       Collection<Entity> guessEntities = Entity.fromMentions(guess);
       HashSet<ClusteredMention> goldClusters = new HashSet<ClusteredMention>();
       for(Entity e: gold){
+	//(cluster the mentions into a copy, leaving the gold entity intact for later passes)
 	Entity newE = new Entity(e);
-	Set<Mention> temp = new HashSet<Mention>(e.mentions);
-	for(Mention m: temp){
-	  e.remove(m);
+	for(Mention m: e.mentions){
 	  m.removeCoreference();
 	  goldClusters.add(m.markCoreferent(newE));
-	}	
+	}
       }
       Document docRev = datum.document;
       debug.append(docRev.debug(goldClusters, guessEntities)); 
@@ -510,12 +947,36 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
 
   private static SerializedDatum getDatum(File serializedDatum){
     try{
-        if(plaintext){
+        if(serializedDatum.getName().endsWith(CorpusConverter.BINARY_EXTENSION)){
+          //(case: binary)
+          Profiler.Timer load = Profiler.start("load");
+          byte[] bytes = new byte[(int) serializedDatum.length()];
+          DataInputStream in = new DataInputStream(new FileInputStream(serializedDatum));
+          try {
+            in.readFully(bytes);
+          } finally {
+            in.close();
+          }
+          load.stop(1);
+          Profiler.Timer decode = Profiler.start("decode");
+          SerializedDatum datum = SerializedDatum.decodeBinary(new DataInputStream(new ByteArrayInputStream(bytes)));
+          decode.stop(1);
+          return datum;
+        } else if(plaintext){
           //(case: plaintext)
-          return SerializedDatum.decode(IOUtils.slurpFile(serializedDatum));
+          Profiler.Timer load = Profiler.start("load");
+          String text = IOUtils.slurpFile(serializedDatum);
+          load.stop(1);
+          Profiler.Timer decode = Profiler.start("decode");
+          SerializedDatum datum = SerializedDatum.decode(text);
+          decode.stop(1);
+          return datum;
         } else {
           //(case: serialized)
-          return  IOUtils.readObjectFromFile(serializedDatum);
+          Profiler.Timer load = Profiler.start("load");
+          SerializedDatum datum = IOUtils.readObjectFromFile(serializedDatum);
+          load.stop(1);
+          return datum;
         }
       } catch (IOException e) {
         throw new RuntimeException(e);
@@ -524,19 +985,177 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       }
   }
 
-  private static File[] getData(String dataPath, DataType dataType, int count){
+  private static WeakReferenceList.RefreshFunction<SerializedDatum> datumLoader(final File[] data){
+    return new WeakReferenceList.RefreshFunction<SerializedDatum>(){
+      public SerializedDatum get(int i) {
+        return getDatum(data[i]);
+      }
+      public int size() {
+        return data.length;
+      }
+    };
+  }
+
+  /**
+   * Cache decoded documents, up to the budget given by -cacheMB
+   * (by default, a quarter of the maximum heap).
+   */
+  static CachedList<SerializedDatum> cached(WeakReferenceList.RefreshFunction<SerializedDatum> data, Properties props){
+    long budget = props.containsKey("cacheMB")
+        ? Long.parseLong(props.getProperty("cacheMB")) * 1024L * 1024L
+        : Runtime.getRuntime().maxMemory() / 4;
+    int prefetch = Integer.parseInt(props.getProperty("prefetch", "0"));
+    return new CachedList<SerializedDatum>(data, new CachedList.Weigher<SerializedDatum>(){
+      public long weigh(SerializedDatum datum) {
+        return datum.estimatedBytes();
+      }
+    }, budget, prefetch);
+  }
+
+  static WeakReferenceList.RefreshFunction<SerializedDatum> getData(String dataPath, DataType dataType, int count){
+    if(pack){
+      //(case: a single pack for the split)
+      try {
+        return new CorpusPack(CorpusPack.packFile(dataPath, dataType)).prefix(count);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    //(case: a file per document)
     File[] data = new File[count];
     int i=0;
-    Iterable<File> files = plaintext
-        ? IOUtils.iterFilesRecursive(new File(dataPath + "/" + conllData(dataType)), ".dat")
-        : IOUtils.iterFilesRecursive(new File(dataPath + "/" + conllData(dataType)), ".ser.gz");
+    Iterable<File> files;
+    if(binary){
+      files = CorpusConverter.binaryFiles(new File(dataPath + "/" + conllData(dataType)));
+    } else {
+      files = plaintext
+          ? IOUtils.iterFilesRecursive(new File(dataPath + "/" + conllData(dataType)), ".dat")
+          : IOUtils.iterFilesRecursive(new File(dataPath + "/" + conllData(dataType)), ".ser.gz");
+    }
     for(File serializedDatum : files){
       if(i >= data.length){ break; }
       data[i] = serializedDatum;
       i += 1;
     }
     if(i != data.length) { throw new IllegalArgumentException("Could not load " + count + " documents; only " + i + " available"); }
-    return data;
+    return datumLoader(data);
+  }
+
+  /**
+   * The documents in a pack file, or in a directory of .dat (or, with -format binary, .bin) files
+   * @param input The pack file or directory
+   * @return The documents, in the order they are found
+   */
+  static WeakReferenceList.RefreshFunction<SerializedDatum> documentsAt(File input){
+    if(input.isFile() && input.getName().endsWith(CorpusPack.PACK_EXTENSION)){
+      //(case: a pack)
+      try {
+        return new CorpusPack(input);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    //(case: a file per document)
+    Iterable<File> files = binary
+        ? CorpusConverter.binaryFiles(input)
+        : IOUtils.iterFilesRecursive(input, ".dat");
+    List<File> data = new ArrayList<File>();
+    for(File f : files){ data.add(f); }
+    return datumLoader(data.toArray(new File[data.size()]));
+  }
+
+  /**
+   * Score the test documents on worker JVMs.
+   * A system which can save its model is trained once, here, and its model is
+   * passed to the workers; any other system is trained again by each worker.
+   * @param system The trained system
+   * @param numShards The number of workers
+   * @param numDocuments The number of test documents
+   * @param savedModel Where the model was saved with -saveModel, or null
+   * @param props The tester's options
+   * @return The merged score
+   */
+  private static CoreferenceScore testSharded(CoreferenceSystem system, int numShards, int numDocuments,
+                                              File savedModel, Properties props){
+    try {
+      //--Worker Options
+      Properties workerProps = new Properties();
+      workerProps.putAll(props);
+      for(String key : new String[]{ "shards", "shardLauncher", "shardHeap", "saveModel", "threads" }){
+        workerProps.remove(key);
+      }
+      if(system instanceof PersistentModel){
+        File model = savedModel;
+        if(model == null){
+          model = File.createTempFile("coref", ".model");
+          model.deleteOnExit();
+          ModelIO.save((PersistentModel) system, model);
+        }
+        workerProps.setProperty("loadModel", model.getAbsolutePath());
+      }
+      List<String> workerArgs = new ArrayList<String>();
+      for(String key : workerProps.stringPropertyNames()){
+        workerArgs.add("-" + key);
+        workerArgs.add(workerProps.getProperty(key));
+      }
+      //--Score
+      System.out.println("Scoring " + numDocuments + " documents on " + numShards + " workers...");
+      ShardCoordinator coordinator = new ShardCoordinator(
+          new ShardCoordinator.LocalLauncher(props.getProperty("shardLauncher"), props.getProperty("shardHeap")), numShards);
+      return coordinator.score(numDocuments, workerArgs);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Create a coreference system
+   * @param systemClass The class of the system, with or without its package; or "baseline"
+   * @return A new, untrained system
+   */
+  public static CoreferenceSystem createSystem(String systemClass){
+    //(classname)
+    if(systemClass.equalsIgnoreCase("baseline")){ systemClass = BaselineCoreferenceSystem.class.getName(); }
+    //(create)
+    try{
+      //((try loading the class))
+      return MetaClass.create(systemClass).createInstance();
+    } catch(MetaClass.ClassCreationException e){
+      //((maybe you forgot to include the package))
+      try{
+        return MetaClass.create("cs224n.corefsystems."+systemClass).createInstance();
+      } catch(MetaClass.ClassCreationException e2){
+        //((give up loading the class))
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Give a system its options, if it has any; exit if they are not valid
+   * @param system The system, before it is trained or loaded
+   * @param props The program's options
+   */
+  public static void configure(CoreferenceSystem system, Properties props){
+    if(system instanceof Configurable){
+      try {
+        ((Configurable) system).configure(props);
+      } catch(IllegalArgumentException e) {
+        System.out.println("ERROR: " + e.getMessage());
+        System.exit(1);
+      }
+    }
+  }
+
+  /**
+   * Set the format documents are read in
+   * @param format One of text, binary or pack
+   * @return false if the format is not known
+   */
+  static boolean setFormat(String format){
+    binary = format.equalsIgnoreCase("binary");
+    pack = format.equalsIgnoreCase("pack");
+    return binary || pack || format.equalsIgnoreCase("text");
   }
 
   public static void main(String[] args) {
@@ -566,23 +1185,8 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
 
     //--Create Coreference Class
     System.out.print("Creating model...");
-    //(classname)
-    String systemClass = props.getProperty("model","baseline");
-    if(systemClass.equalsIgnoreCase("baseline")){ systemClass = BaselineCoreferenceSystem.class.getName(); }
-    //(create)
-    CoreferenceSystem system;
-    try{
-      //((try loading the class))
-      system = MetaClass.create(systemClass).createInstance();
-    } catch(MetaClass.ClassCreationException e){
-      //((maybe you forgot to include the package))
-      try{
-        system = MetaClass.create("cs224n.corefsystems."+systemClass).createInstance();
-      } catch(MetaClass.ClassCreationException e2){
-        //((give up loading the class))
-        throw e;
-      }
-    }
+    CoreferenceSystem system = createSystem(props.getProperty("model","baseline"));
+    configure(system, props);
     System.out.println("done");
 
     //--Read Data
@@ -606,41 +1210,252 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       System.out.println("ERROR: not a valid number of documents: " + props.getProperty("documents"));
       System.exit(1);
     }
-    if(numDocs <= 0 || numDocs > MAX_TRAIN_EXAMPLES){
-      System.out.println("ERROR: not a valid number of documents: " + numDocs + " (must be between 0 and " + MAX_TRAIN_EXAMPLES + ")");
+    if(numDocs <= 0){
+      System.out.println("ERROR: not a valid number of documents: " + numDocs + " (must be positive)");
       System.exit(1);
     }
     System.out.print("[" + numDocs + " train]...");
+    //(get data format)
+    String format = props.getProperty("format", "text");
+    if(!setFormat(format)){
+      System.out.println("ERROR: unknown data format: " + format + " (must be text, binary, or pack)");
+      System.exit(1);
+    }
+    //(get number of threads)
+    try {
+      int numThreads = Integer.parseInt(props.getProperty("threads", "1"));
+      if(numThreads <= 0){
+        System.out.println("ERROR: not a valid number of threads: " + numThreads + " (must be positive)");
+        System.exit(1);
+      }
+    } catch(NumberFormatException e) {
+      System.out.println("ERROR: not a valid number of threads: " + props.getProperty("threads"));
+      System.exit(1);
+    }
+    //(get candidate blocking)
+    //   (-blocking searches only plausible antecedents; -blockingWindow N also limits them to N sentences back;
+    //    systems read these themselves, and the tester measures them on the training data)
+    try {
+      BlockingIndex.Settings.read(props);
+    } catch(IllegalArgumentException e) {
+      System.out.println("ERROR: " + e.getMessage());
+      System.exit(1);
+    }
+    //(get prefetch depth)
+    try {
+      int prefetch = Integer.parseInt(props.getProperty("prefetch", "0"));
+      if(prefetch < 0){
+        System.out.println("ERROR: not a valid prefetch depth: " + prefetch + " (must be non-negative)");
+        System.exit(1);
+      }
+    } catch(NumberFormatException e) {
+      System.out.println("ERROR: not a valid prefetch depth: " + props.getProperty("prefetch"));
+      System.exit(1);
+    }
+    //(get cache budget)
+    if(props.containsKey("cacheMB")){
+      try {
+        long cacheMB = Long.parseLong(props.getProperty("cacheMB"));
+        if(cacheMB < 0){
+          System.out.println("ERROR: not a valid cache size: " + cacheMB + " (must be non-negative)");
+          System.exit(1);
+        }
+      } catch(NumberFormatException e) {
+        System.out.println("ERROR: not a valid cache size: " + props.getProperty("cacheMB"));
+        System.exit(1);
+      }
+    }
+    //(get saved model)
+    File loadModel = props.containsKey("loadModel") ? new File(props.getProperty("loadModel")) : null;
+    File saveModel = props.containsKey("saveModel") ? new File(props.getProperty("saveModel")) : null;
+    if((loadModel != null || saveModel != null) && !(system instanceof PersistentModel)){
+      System.out.println("ERROR: " + system.getClass().getSimpleName() + " cannot save or load models");
+      System.exit(1);
+    }
+    if(loadModel != null && !loadModel.isFile()){
+      System.out.println("ERROR: no such model: " + loadModel);
+      System.exit(1);
+    }
+    //(get comparison system)
+    //   (-compare [system] runs a paired bootstrap of it against -model)
+    CoreferenceSystem compare = null;
+    File compareLoadModel = props.containsKey("compareLoadModel") ? new File(props.getProperty("compareLoadModel")) : null;
+    if(props.containsKey("compare")){
+      compare = createSystem(props.getProperty("compare"));
+      configure(compare, props);
+      if(compareLoadModel != null && !(compare instanceof PersistentModel)){
+        System.out.println("ERROR: " + compare.getClass().getSimpleName() + " cannot save or load models");
+        System.exit(1);
+      }
+      if(compareLoadModel != null && !compareLoadModel.isFile()){
+        System.out.println("ERROR: no such model: " + compareLoadModel);
+        System.exit(1);
+      }
+    }
+    //(get prediction output)
+    File predict = props.containsKey("predict") ? new File(props.getProperty("predict")) : null;
+    File input = props.containsKey("input") ? new File(props.getProperty("input")) : null;
+    if(input != null && predict == null){
+      System.out.println("ERROR: -input is only used with -predict");
+      System.exit(1);
+    }
+    if(input != null && !input.exists()){
+      System.out.println("ERROR: no such input: " + input);
+      System.exit(1);
+    }
+    //(get shards)
+    //   (-shards N coordinates N workers; a worker is run with -shard k/N)
+    int numShards = 0;
+    int shard = -1;
+    try {
+      numShards = Integer.parseInt(props.getProperty("shards", "0"));
+      if(props.containsKey("shard")){
+        String[] fields = props.getProperty("shard").split("/");
+        shard = Integer.parseInt(fields[0]);
+        numShards = Integer.parseInt(fields[1]);
+        if(shard < 0 || shard >= numShards){ throw new NumberFormatException(); }
+      }
+    } catch(RuntimeException e) {
+      System.out.println("ERROR: not a valid shard: " + props.getProperty("shard", props.getProperty("shards")));
+      System.exit(1);
+    }
+    if(numShards < 0 || (numShards > 0 && (predict != null || compare != null || props.containsKey("mistakes")))){
+      System.out.println("ERROR: -shards must be positive, and cannot be used with -predict, -compare or -mistakes");
+      System.exit(1);
+    }
     //(get serialized data)
     //((train))
-    File[] train = getData(dataPath, DataType.TRAIN, numDocs);
+    //   (the CoNLL training set has 1600 documents; a synthetic corpus may have more)
+    CachedList<SerializedDatum> train = null;
+    if(loadModel == null || (compare != null && compareLoadModel == null)){
+      try {
+        train = cached(getData(dataPath, DataType.TRAIN, numDocs), props);
+      } catch(IllegalArgumentException e) {
+        System.out.println("ERROR: " + e.getMessage());
+        System.exit(1);
+      }
+    }
     //((dev/test))
     String dataTypeString = props.getProperty("data","dev");
-    File[] test = null;
-    DataType dataType = null;
-    try {
-      dataType = DataType.valueOf(dataTypeString.toUpperCase());
-      System.out.print("["+(dataType == DataType.TEST ? NUM_TEST_EXAMPLES : NUM_DEV_EXAMPLES)+" " + dataType + "]...");
-    } catch (IllegalArgumentException e) {
-      System.out.println("ERROR: bad -data flag type: " + dataTypeString);
-      System.exit(1);
+    CachedList<SerializedDatum> test = null;
+    WeakReferenceList.RefreshFunction<SerializedDatum> toPredict = null;
+    if(input != null){
+      //(case: predicting an arbitrary document set)
+      toPredict = documentsAt(input);
+      System.out.print("[" + toPredict.size() + " in " + input + "]...");
+    } else {
+      DataType dataType = null;
+      try {
+        dataType = DataType.valueOf(dataTypeString.toUpperCase());
+        System.out.print("["+(dataType == DataType.TEST ? NUM_TEST_EXAMPLES : NUM_DEV_EXAMPLES)+" " + dataType + "]...");
+      } catch (IllegalArgumentException e) {
+        System.out.println("ERROR: bad -data flag type: " + dataTypeString);
+        System.exit(1);
+      }
+      WeakReferenceList.RefreshFunction<SerializedDatum> data
+          = getData(dataPath, dataType, dataType == DataType.TEST ? NUM_TEST_EXAMPLES : NUM_DEV_EXAMPLES);
+      if(predict != null){
+        toPredict = data;
+      } else {
+        test = cached(data, props);
+      }
     }
-    test = getData(dataPath, dataType, dataType == DataType.TEST ? NUM_TEST_EXAMPLES : NUM_DEV_EXAMPLES);
     System.out.println("done");
 
     //--TRAIN/TEST
     //(create)
     CoreferenceTester<CoreferenceSystem> tester = new CoreferenceTester<CoreferenceSystem>(system);
-    //(traing)
-    System.out.println("----------");
-    System.out.println(" TRAINING");
-    System.out.println("----------");
-    CoreferenceScore trainScore = tester.train(train, props);
+    //(train, or load a trained model)
+    CoreferenceScore trainScore = null;
+    try {
+      if(loadModel != null){
+        System.out.print("Loading model [" + loadModel + "]...");
+        Profiler.Timer timer = Profiler.start("loadModel");
+        ModelIO.load((PersistentModel) system, loadModel);
+        timer.stop();
+        System.out.println("done");
+      } else if(shard >= 0){
+        //(case: a worker, which does not need the training score)
+        tester.trainSystem(train, props);
+      } else {
+        System.out.println("----------");
+        System.out.println(" TRAINING");
+        System.out.println("----------");
+        trainScore = tester.train(train, props);
+      }
+      if(saveModel != null){
+        System.out.print("Saving model [" + saveModel + "]...");
+        ModelIO.save((PersistentModel) system, saveModel);
+        System.out.println("done [" + saveModel.length() + " bytes]");
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    //(predict)
+    if(predict != null){
+      System.out.println("------------");
+      System.out.println(" PREDICTING");
+      System.out.println("------------");
+      try {
+        ConllWriter out = new ConllWriter(predict);
+        try {
+          tester.predict(toPredict, out, props);
+        } finally {
+          out.close();
+        }
+        System.out.println("Wrote " + out.documents() + " documents to " + predict);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      System.out.println();
+      System.out.println("--Profile--");
+      System.out.println(Profiler.report());
+      return;
+    }
+    //(shard worker)
+    if(shard >= 0){
+      tester.testShard(test, ShardCoordinator.shardStart(shard, numShards, test.size()),
+          ShardCoordinator.shardStart(shard + 1, numShards, test.size()), props, System.out);
+      return;
+    }
     //(test)
     System.out.println("---------");
     System.out.println(" TESTING");
     System.out.println("---------");
-    CoreferenceScore testScore = tester.test(test, props);
+    CoreferenceScore testScore;
+    List<CoreferenceScore> perDocument = compare == null ? null : new ArrayList<CoreferenceScore>();
+    if(numShards > 0){
+      testScore = testSharded(system, numShards, test.size(), saveModel, props);
+    } else {
+      testScore = tester.test(test, props, perDocument);
+    }
+    //(compare)
+    List<PairedBootstrap.Result> comparison = null;
+    CoreferenceScore compareScore = null;
+    if(compare != null){
+      System.out.println("-----------");
+      System.out.println(" COMPARING");
+      System.out.println("-----------");
+      CoreferenceTester<CoreferenceSystem> compareTester = new CoreferenceTester<CoreferenceSystem>(compare);
+      try {
+        if(compareLoadModel != null){
+          System.out.print("Loading model [" + compareLoadModel + "]...");
+          ModelIO.load((PersistentModel) compare, compareLoadModel);
+          System.out.println("done");
+        } else {
+          compareTester.trainSystem(train, props);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      List<CoreferenceScore> comparePerDocument = new ArrayList<CoreferenceScore>();
+      compareScore = compareTester.test(test, props, comparePerDocument);
+      comparison = new PairedBootstrap(perDocument, comparePerDocument).run(
+          Integer.parseInt(props.getProperty("resamples", "10000")),
+          Double.parseDouble(props.getProperty("confidence", "0.95")),
+          Long.parseLong(props.getProperty("seed", "42")),
+          Integer.parseInt(props.getProperty("threads", "" + Runtime.getRuntime().availableProcessors())));
+    }
     //(debug)
     if(props.containsKey("mistakes")){
       System.out.println("----------------");
@@ -648,15 +1463,32 @@ public class CoreferenceTester<SYS extends CoreferenceSystem> {
       System.out.println("----------------");
       System.out.println(tester.debug(test, props));
     }
+    System.out.println("Test document cache: " + test);
     //(report)
     System.out.println("--------------------");
     System.out.println(" COREFERENCE SCORES");
     System.out.println("--------------------");
-    System.out.println("--Training--");
-    trainScore.report();
-    System.out.println();
+    if(trainScore != null){
+      System.out.println("--Training--");
+      trainScore.report();
+      System.out.println();
+    }
     System.out.println("--"+props.getProperty("data","dev")+"--");
     testScore.report();
+    if(comparison != null){
+      System.out.println();
+      System.out.println("--"+props.getProperty("data","dev")+" (" + compare.getClass().getSimpleName() + ")--");
+      compareScore.report();
+      System.out.println();
+      System.out.println("--Paired bootstrap: A = " + system.getClass().getSimpleName() + ", B = " + compare.getClass().getSimpleName() +
+          " [" + props.getProperty("resamples", "10000") + " resamples, " + props.getProperty("confidence", "0.95") + " confidence]--");
+      System.out.println(PairedBootstrap.header());
+      for(PairedBootstrap.Result result : comparison){ System.out.println(result); }
+    }
+    //(profile)
+    System.out.println();
+    System.out.println("--Profile--");
+    System.out.println(Profiler.report());
 
   }
 
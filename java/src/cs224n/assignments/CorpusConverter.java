@@ -0,0 +1,146 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.util.IOUtils;
+import cs224n.util.StringUtils;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Converts the plaintext (.dat) corpus into the binary corpus format
+ * read by {@link SerializedDatum#decodeBinary(DataInput)}.
+ *
+ * Each .dat file is written to a .bin file at the same relative path under the
+ * output directory. Every split directory also gets an index file listing its
+ * documents in the order the .dat files were found, so that the tester selects
+ * the same documents in either format.
+ *
+ * With -pack, each split is instead written to a single {@link CorpusPack}
+ * (e.g., conll2011.train.pack) holding its documents in the same order.
+ *
+ * Usage: java cs224n.assignments.CorpusConverter -path [data path] [-out [output path]] [-pack]
+ */
+public class CorpusConverter {
+  public static final String BINARY_EXTENSION = ".bin";
+  public static final String INDEX_FILE = "index.txt";
+
+  /**
+   * Lists the binary documents in a split directory, in the order given by its
+   * index file. If there is no index file, the directory is walked instead.
+   * @param splitDir The directory for a split (e.g., conll2011.train.ser)
+   * @return The binary documents in the split
+   */
+  public static Iterable<File> binaryFiles(File splitDir){
+    File index = new File(splitDir, INDEX_FILE);
+    if(!index.exists()){
+      return IOUtils.iterFilesRecursive(splitDir, BINARY_EXTENSION);
+    }
+    List<File> files = new ArrayList<File>();
+    for(String line : IOUtils.readLines(index)){
+      if(!line.trim().equals("")){ files.add(new File(splitDir, line.trim())); }
+    }
+    return files;
+  }
+
+  /**
+   * Convert a single document, and check that it reads back to the same datum.
+   * @param datum The datum to convert
+   * @return The binary encoding of the datum
+   */
+  public static byte[] toBinary(SerializedDatum datum) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    datum.encodeBinary(out);
+    out.flush();
+    byte[] encoded = bytes.toByteArray();
+    //(error check)
+    SerializedDatum decoded = SerializedDatum.decodeBinary(new DataInputStream(new ByteArrayInputStream(encoded)));
+    ByteArrayOutputStream reencoded = new ByteArrayOutputStream();
+    DataOutputStream reencodedOut = new DataOutputStream(reencoded);
+    decoded.encodeBinary(reencodedOut);
+    reencodedOut.flush();
+    if(!Arrays.equals(encoded, reencoded.toByteArray())){
+      throw new IllegalStateException("Did not encode datum properly: " + datum.document.id);
+    }
+    return encoded;
+  }
+
+  private static String relativePath(File root, File file){
+    String rootPath = root.getPath();
+    String path = file.getPath();
+    if(!path.startsWith(rootPath)){ throw new IllegalArgumentException("File is not under " + root + ": " + file); }
+    path = path.substring(rootPath.length());
+    while(path.startsWith(File.separator)){ path = path.substring(1); }
+    return path;
+  }
+
+  public static void main(String[] args) throws IOException {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    String dataPath = props.getProperty("path", CoreferenceTester.dataPath);
+    String outPath = props.getProperty("out", dataPath);
+    boolean pack = Boolean.parseBoolean(props.getProperty("pack", "false"));
+    //--Convert
+    long bytesIn = 0;
+    long bytesOut = 0;
+    int numDocs = 0;
+    for(DataType type : DataType.values()){
+      File inDir = new File(dataPath + "/" + CoreferenceTester.conllData(type));
+      File outDir = new File(outPath + "/" + CoreferenceTester.conllData(type));
+      if(!inDir.isDirectory()){
+        System.out.println("Skipping " + type + ": no such directory " + inDir);
+        continue;
+      }
+      System.out.print("Converting " + type + "...");
+      PrintWriter index = null;
+      CorpusPack.Writer packWriter = null;
+      int numInSplit = 0;
+      try {
+        if(pack){
+          new File(outPath).mkdirs();
+          packWriter = new CorpusPack.Writer(CorpusPack.packFile(outPath, type));
+        }
+        for(File datFile : IOUtils.iterFilesRecursive(inDir, ".dat")){
+          //(read)
+          SerializedDatum datum = SerializedDatum.decode(IOUtils.slurpFile(datFile));
+          byte[] encoded = toBinary(datum);
+          //(write)
+          if(pack){
+            packWriter.add(encoded);
+          } else {
+            String relative = relativePath(inDir, datFile);
+            relative = relative.substring(0, relative.length() - ".dat".length()) + BINARY_EXTENSION;
+            File binFile = new File(outDir, relative);
+            binFile.getParentFile().mkdirs();
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(binFile));
+            try {
+              out.write(encoded);
+            } finally {
+              out.close();
+            }
+            //(index)
+            if(index == null){ index = new PrintWriter(new FileWriter(new File(outDir, INDEX_FILE))); }
+            index.println(relative);
+          }
+          //(statistics)
+          bytesIn += datFile.length();
+          bytesOut += encoded.length;
+          numInSplit += 1;
+        }
+      } finally {
+        if(index != null){ index.close(); }
+        if(packWriter != null){ packWriter.close(); }
+      }
+      numDocs += numInSplit;
+      System.out.println("done [" + numInSplit + " documents]");
+    }
+    //--Report
+    System.out.println("Converted " + numDocs + " documents: " + bytesIn + " bytes -> " + bytesOut + " bytes" +
+        (bytesOut > 0 ? " (" + String.format("%.1f", ((double) bytesIn) / ((double) bytesOut)) + "x smaller)" : ""));
+  }
+}
@@ -0,0 +1,247 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.util.Profiler;
+import cs224n.util.WeakReferenceList;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single file holding every document of a split, in the binary format of
+ * {@link SerializedDatum#encodeBinary(DataOutput)}, which is memory mapped
+ * and read by document index.
+ *
+ * The layout of a pack is:
+ * <pre>
+ *   int  PACK_MAGIC
+ *   int  PACK_VERSION
+ *   [document 0] [document 1] ... [document n-1]
+ *   long offset[0] ... long offset[n]     (offset[n] is the end of the last document)
+ *   int  n
+ *   long offset of the offset table
+ *   int  PACK_MAGIC
+ * </pre>
+ *
+ * Reading a document never touches the file system: its bytes are sliced out of the
+ * mapping and decoded. The reader is safe to share between threads.
+ */
+public class CorpusPack implements WeakReferenceList.RefreshFunction<SerializedDatum> {
+  public static final int PACK_MAGIC = 0x434f5250;
+  public static final int PACK_VERSION = 1;
+  public static final String PACK_EXTENSION = ".pack";
+  private static final int TRAILER_LENGTH = 4 + 8 + 4;
+
+  /**
+   * The pack file for a split, which sits next to the split's directory
+   * (e.g., conll2011.train.pack)
+   * @param dataPath The root of the data
+   * @param type The split
+   * @return The pack file for the split
+   */
+  public static File packFile(String dataPath, DataType type){
+    String dir = CoreferenceTester.conllData(type);
+    while(dir.endsWith("/")){ dir = dir.substring(0, dir.length() - 1); }
+    if(dir.endsWith(".ser")){ dir = dir.substring(0, dir.length() - ".ser".length()); }
+    return new File(dataPath + "/" + dir + PACK_EXTENSION);
+  }
+
+  private final File file;
+  private final ByteBuffer whole;       // the entire file, if it fits in a single mapping
+  private final FileChannel channel;    // otherwise, documents are mapped one at a time
+  private final long[] offsets;
+  private final int size;
+
+  /**
+   * Open a pack for reading.
+   * @param file The pack file
+   */
+  public CorpusPack(File file) throws IOException {
+    this.file = file;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    FileChannel channel = raf.getChannel();
+    boolean keepOpen = false;
+    try {
+      long length = channel.size();
+      if(length < 8 + TRAILER_LENGTH){ throw new IOException("Not a corpus pack (too short): " + file); }
+      //(header)
+      ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+      if(header.getInt() != PACK_MAGIC){ throw new IOException("Not a corpus pack (bad magic number): " + file); }
+      int version = header.getInt();
+      if(version != PACK_VERSION){ throw new IOException("Unsupported corpus pack version " + version + " (expected " + PACK_VERSION + "): " + file); }
+      //(trailer)
+      ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, length - TRAILER_LENGTH, TRAILER_LENGTH);
+      int numDocs = trailer.getInt();
+      long tableOffset = trailer.getLong();
+      if(trailer.getInt() != PACK_MAGIC){ throw new IOException("Corpus pack is truncated (bad trailer): " + file); }
+      if(numDocs < 0 || tableOffset < 8 || tableOffset + 8L * (numDocs + 1) != length - TRAILER_LENGTH){
+        throw new IOException("Corpus pack has a corrupt offset table: " + file);
+      }
+      //(offset table)
+      ByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, 8L * (numDocs + 1));
+      this.offsets = new long[numDocs + 1];
+      for(int i=0; i<=numDocs; i++){
+        offsets[i] = table.getLong();
+        if(offsets[i] < 8 || offsets[i] > tableOffset || (i > 0 && offsets[i] < offsets[i-1])){
+          throw new IOException("Corpus pack has a corrupt offset table: " + file);
+        }
+      }
+      this.size = numDocs;
+      //(documents)
+      if(tableOffset <= Integer.MAX_VALUE){
+        this.whole = channel.map(FileChannel.MapMode.READ_ONLY, 0, tableOffset);
+        this.channel = null;
+      } else {
+        this.whole = null;
+        this.channel = channel;
+        keepOpen = true;
+      }
+    } finally {
+      if(!keepOpen){ raf.close(); }
+    }
+  }
+
+  /**
+   * The raw bytes of a document, without decoding it
+   * @param i The index of the document
+   * @return A read-only buffer over the document's encoding
+   */
+  public ByteBuffer bytes(int i){
+    if(i < 0 || i >= size){ throw new IndexOutOfBoundsException("Document " + i + " is not in " + file + " (" + size + " documents)"); }
+    long start = offsets[i];
+    long end = offsets[i+1];
+    if(whole != null){
+      ByteBuffer slice = whole.duplicate();
+      slice.limit((int) end);
+      slice.position((int) start);
+      return slice.slice();
+    } else {
+      try {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  public SerializedDatum get(int i) {
+    try {
+      Profiler.Timer decode = Profiler.start("decode");
+      SerializedDatum datum = SerializedDatum.decodeBinary(new DataInputStream(new ByteBufferInputStream(bytes(i))));
+      decode.stop(1);
+      return datum;
+    } catch (IOException e) {
+      throw new RuntimeException("Could not decode document " + i + " of " + file, e);
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The first few documents of the pack
+   * @param count The number of documents to keep
+   * @return A view of the first count documents
+   */
+  public WeakReferenceList.RefreshFunction<SerializedDatum> prefix(final int count){
+    if(count > size){ throw new IllegalArgumentException("Could not load " + count + " documents; only " + size + " available"); }
+    return new WeakReferenceList.RefreshFunction<SerializedDatum>(){
+      public SerializedDatum get(int i) {
+        if(i >= count){ throw new IndexOutOfBoundsException("Document " + i + " is past the first " + count); }
+        return CorpusPack.this.get(i);
+      }
+      public int size() {
+        return count;
+      }
+    };
+  }
+
+  /**
+   * Release the file handle, if one is held.
+   * The pack cannot be read after this.
+   */
+  public void close() throws IOException {
+    if(channel != null){ channel.close(); }
+  }
+
+  @Override
+  public String toString(){
+    return file.getPath() + " [" + size + " documents]";
+  }
+
+  /**
+   * Writes a pack, one document at a time.
+   */
+  public static class Writer {
+    private final DataOutputStream out;
+    private final List<Long> offsets = new ArrayList<Long>();
+    private long position = 0;  // DataOutputStream.size() saturates at 2GB, so track the position here
+
+    public Writer(File file) throws IOException {
+      this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+      out.writeInt(PACK_MAGIC);
+      out.writeInt(PACK_VERSION);
+      position = 8;
+    }
+
+    /**
+     * Append an encoded document
+     * @param encoded The binary encoding of a datum
+     */
+    public void add(byte[] encoded) throws IOException {
+      offsets.add(position);
+      out.write(encoded);
+      position += encoded.length;
+    }
+
+    /**
+     * The number of documents written so far
+     */
+    public int size(){ return offsets.size(); }
+
+    /**
+     * Write the offset table and trailer, and close the file.
+     */
+    public void close() throws IOException {
+      try {
+        long tableOffset = position;
+        for(long offset : offsets){ out.writeLong(offset); }
+        out.writeLong(tableOffset);
+        out.writeInt(offsets.size());
+        out.writeLong(tableOffset);
+        out.writeInt(PACK_MAGIC);
+      } finally {
+        out.close();
+      }
+    }
+  }
+
+  /**
+   * An InputStream over the remaining bytes of a ByteBuffer.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+    private ByteBufferInputStream(ByteBuffer buffer){ this.buffer = buffer; }
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+    }
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if(len == 0){ return 0; }
+      if(!buffer.hasRemaining()){ return -1; }
+      int n = Math.min(len, buffer.remaining());
+      buffer.get(b, off, n);
+      return n;
+    }
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.CoreferenceScore;
+import cs224n.util.Profiler;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A paired bootstrap comparison of two systems run on the same documents.
+ *
+ * Each resample draws as many documents as there are, with replacement, and
+ * sums both systems' per-document sufficient statistics over the draw; no
+ * coreference is re-run. The resamples are split over a fork-join pool, and
+ * resample r always uses the same random draws, so the result does not depend
+ * on the number of threads.
+ *
+ * For each metric, this reports the observed difference (B minus A), a
+ * percentile confidence interval for it, and the fraction of resamples in
+ * which the difference is zero or has the opposite sign from the observed one
+ * (a one-sided p-value).
+ */
+public class PairedBootstrap {
+  public static final String[] METRICS = { "MUC Precision", "MUC Recall", "MUC F1", "B^3 Precision", "B^3 Recall", "B^3 F1" };
+  private static final int COUNTS = 8;
+  private static final int RESAMPLES_PER_TASK = 64;
+
+  /**
+   * The comparison on one metric
+   */
+  public static class Result {
+    public final String metric;
+    public final double a;
+    public final double b;
+    public final double lower;
+    public final double upper;
+    public final double p;
+
+    private Result(String metric, double a, double b, double lower, double upper, double p){
+      this.metric = metric;
+      this.a = a;
+      this.b = b;
+      this.lower = lower;
+      this.upper = upper;
+      this.p = p;
+    }
+
+    public double delta(){ return b - a; }
+
+    public String toString(){
+      return String.format("%-14s %8.4f %8.4f %+9.4f  [%+8.4f, %+8.4f]  %7.4f", metric, a, b, delta(), lower, upper, p);
+    }
+  }
+
+  private final int numDocuments;
+  private final double[] countsA;
+  private final double[] countsB;
+
+  /**
+   * @param a The per-document scores of the first system
+   * @param b The per-document scores of the second system, on the same documents in the same order
+   */
+  public PairedBootstrap(List<CoreferenceScore> a, List<CoreferenceScore> b){
+    if(a.size() != b.size()){ throw new IllegalArgumentException("Systems were scored on different documents: " + a.size() + " vs. " + b.size()); }
+    if(a.isEmpty()){ throw new IllegalArgumentException("No documents to resample"); }
+    this.numDocuments = a.size();
+    this.countsA = flatten(a);
+    this.countsB = flatten(b);
+  }
+
+  private static double[] flatten(List<CoreferenceScore> scores){
+    double[] flat = new double[scores.size() * COUNTS];
+    for(int i=0; i<scores.size(); i++){
+      System.arraycopy(scores.get(i).counts(), 0, flat, i * COUNTS, COUNTS);
+    }
+    return flat;
+  }
+
+  private static double[] metrics(double[] counts){
+    CoreferenceScore score = CoreferenceScore.fromCounts(counts, 0);
+    return new double[]{ score.precisionMUC(), score.recallMUC(), score.f1MUC(),
+        score.precisionB3(), score.recallB3(), score.f1B3() };
+  }
+
+  /**
+   * The differences in each metric (B minus A) on one resample
+   * @param countsA The flattened per-document counts of the first system
+   * @param countsB The flattened per-document counts of the second system
+   * @param seed The random seed
+   * @param r The index of the resample
+   */
+  private static double[] resample(double[] countsA, double[] countsB, long seed, int r){
+    int numDocuments = countsA.length / COUNTS;
+    Random rand = new Random(seed ^ ((long) r * 0x9E3779B97F4A7C15L));
+    double[] sumA = new double[COUNTS];
+    double[] sumB = new double[COUNTS];
+    for(int i=0; i<numDocuments; i++){
+      int offset = rand.nextInt(numDocuments) * COUNTS;
+      for(int k=0; k<COUNTS; k++){
+        sumA[k] += countsA[offset + k];
+        sumB[k] += countsB[offset + k];
+      }
+    }
+    double[] a = metrics(sumA);
+    double[] b = metrics(sumB);
+    double[] delta = new double[a.length];
+    for(int k=0; k<a.length; k++){ delta[k] = b[k] - a[k]; }
+    return delta;
+  }
+
+  private static class ResampleTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] countsA;
+    private final double[] countsB;
+    private final double[][] deltas;
+    private final long seed;
+    private final int from;
+    private final int to;
+
+    private ResampleTask(double[] countsA, double[] countsB, double[][] deltas, long seed, int from, int to){
+      this.countsA = countsA;
+      this.countsB = countsB;
+      this.deltas = deltas;
+      this.seed = seed;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      if(to - from <= RESAMPLES_PER_TASK){
+        for(int r=from; r<to; r++){ deltas[r] = resample(countsA, countsB, seed, r); }
+      } else {
+        int mid = (from + to) >>> 1;
+        invokeAll(new ResampleTask(countsA, countsB, deltas, seed, from, mid),
+            new ResampleTask(countsA, countsB, deltas, seed, mid, to));
+      }
+    }
+  }
+
+  /**
+   * Run the bootstrap
+   * @param numResamples The number of resamples
+   * @param confidence The coverage of the confidence intervals (e.g., 0.95)
+   * @param seed The random seed
+   * @param numThreads The number of threads to resample on
+   * @return The comparison on each of the METRICS
+   */
+  public List<Result> run(int numResamples, double confidence, long seed, int numThreads){
+    if(numResamples <= 0){ throw new IllegalArgumentException("Number of resamples must be positive: " + numResamples); }
+    if(confidence <= 0.0 || confidence >= 1.0){ throw new IllegalArgumentException("Confidence must be between 0 and 1: " + confidence); }
+    //--Resample
+    Profiler.Timer timer = Profiler.start("bootstrap");
+    double[][] deltas = new double[numResamples][];
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+    try {
+      pool.invoke(new ResampleTask(countsA, countsB, deltas, seed, 0, numResamples));
+    } finally {
+      pool.shutdown();
+    }
+    timer.stop(numResamples);
+    //--Summarize
+    double[] observedA = metrics(sum(countsA));
+    double[] observedB = metrics(sum(countsB));
+    List<Result> results = new ArrayList<Result>();
+    double[] column = new double[numResamples];
+    for(int k=0; k<METRICS.length; k++){
+      double observed = observedB[k] - observedA[k];
+      int opposite = 0;
+      for(int r=0; r<numResamples; r++){
+        column[r] = deltas[r][k];
+        if(observed > 0 ? column[r] <= 0 : column[r] >= 0){ opposite += 1; }
+      }
+      Arrays.sort(column);
+      double tail = (1.0 - confidence) / 2.0;
+      results.add(new Result(METRICS[k], observedA[k], observedB[k],
+          percentile(column, tail), percentile(column, 1.0 - tail), ((double) opposite) / ((double) numResamples)));
+    }
+    return results;
+  }
+
+  private double[] sum(double[] counts){
+    double[] total = new double[COUNTS];
+    for(int i=0; i<numDocuments; i++){
+      for(int k=0; k<COUNTS; k++){ total[k] += counts[i * COUNTS + k]; }
+    }
+    return total;
+  }
+
+  private static double percentile(double[] sorted, double q){
+    int index = (int) Math.floor(q * (sorted.length - 1));
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  public static String header(){
+    return String.format("%-14s %8s %8s %9s  %-20s  %7s", "metric", "A", "B", "B-A", "interval", "p");
+  }
+}
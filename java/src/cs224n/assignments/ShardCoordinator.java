@@ -0,0 +1,175 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.CoreferenceScore;
+import cs224n.util.Profiler;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Scores a document set by splitting it into contiguous shards, and running
+ * each shard in its own worker JVM (so each has its own heap).
+ *
+ * A worker is the tester itself, run with <code>-shard k/N</code>. It prints
+ * one line per document, as soon as the document is scored:
+ * <pre>
+ *   #score [document index] [score]
+ * </pre>
+ * where the score is the document's {@link CoreferenceScore#encode()} sufficient
+ * statistics. Other output of the worker is ignored, except for the tail of it
+ * which is reported if the worker fails. The coordinator merges the scores in
+ * document order, so the result is exactly that of scoring in a single process.
+ *
+ * Workers are started by a {@link Launcher}; the local launcher runs them
+ * on this machine, optionally through a command prefix (e.g., "ssh otherbox")
+ * standing in for a remote transport.
+ */
+public class ShardCoordinator {
+  public static final String SCORE_PREFIX = "#score ";
+  private static final int LOG_TAIL = 20;
+
+  /**
+   * Starts a worker process.
+   */
+  public static interface Launcher {
+    public Process launch(List<String> command) throws IOException;
+  }
+
+  /**
+   * Runs workers with the same java and classpath as this JVM.
+   */
+  public static class LocalLauncher implements Launcher {
+    private final List<String> prefix;
+    private final String maxHeap;
+
+    /**
+     * @param prefix A command to run the worker through (e.g., "ssh otherbox"), or null
+     * @param maxHeap The maximum heap of each worker (e.g., "2g"), or null for the JVM default
+     */
+    public LocalLauncher(String prefix, String maxHeap){
+      this.prefix = prefix == null || prefix.trim().length() == 0
+          ? Collections.<String>emptyList()
+          : Arrays.asList(prefix.trim().split("\\s+"));
+      this.maxHeap = maxHeap;
+    }
+
+    public Process launch(List<String> args) throws IOException {
+      List<String> command = new ArrayList<String>(prefix);
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+      if(maxHeap != null){ command.add("-Xmx" + maxHeap); }
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add(CoreferenceTester.class.getName());
+      command.addAll(args);
+      ProcessBuilder builder = new ProcessBuilder(command);
+      builder.redirectErrorStream(true);
+      return builder.start();
+    }
+  }
+
+  private final Launcher launcher;
+  private final int numShards;
+
+  public ShardCoordinator(Launcher launcher, int numShards){
+    if(numShards <= 0){ throw new IllegalArgumentException("Number of shards must be positive: " + numShards); }
+    this.launcher = launcher;
+    this.numShards = numShards;
+  }
+
+  /**
+   * The first document of a shard; shard k covers [start(k), start(k+1)).
+   */
+  public static int shardStart(int shard, int numShards, int numDocuments){
+    return (int) (((long) shard * (long) numDocuments) / (long) numShards);
+  }
+
+  /**
+   * Score documents on the workers
+   * @param numDocuments The number of documents the workers will find
+   * @param workerArgs The tester options for the workers; "-shard k/N" is added for each
+   * @return The merged score
+   */
+  public CoreferenceScore score(final int numDocuments, List<String> workerArgs) throws IOException {
+    Profiler.Timer timer = Profiler.start("shards");
+    final CoreferenceScore[] scores = new CoreferenceScore[numDocuments];
+    //--Launch Workers
+    final Process[] workers = new Process[numShards];
+    final String[] failures = new String[numShards];
+    Thread[] readers = new Thread[numShards];
+    try {
+      for(int shard=0; shard<numShards; shard++){
+        List<String> args = new ArrayList<String>(workerArgs);
+        args.add("-shard");
+        args.add(shard + "/" + numShards);
+        workers[shard] = launcher.launch(args);
+        //(read scores as they arrive)
+        final int k = shard;
+        readers[shard] = new Thread("shard-" + shard){
+          public void run(){
+            failures[k] = read(k, workers[k], scores);
+          }
+        };
+        readers[shard].start();
+      }
+      //--Wait
+      for(int shard=0; shard<numShards; shard++){
+        readers[shard].join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } finally {
+      for(Process worker : workers){ if(worker != null){ worker.destroy(); } }
+    }
+    //--Merge
+    for(int shard=0; shard<numShards; shard++){
+      if(failures[shard] != null){ throw new IllegalStateException(failures[shard]); }
+    }
+    CoreferenceScore score = new CoreferenceScore();
+    for(int i=0; i<numDocuments; i++){
+      if(scores[i] == null){ throw new IllegalStateException("No score returned for document " + i); }
+      score.merge(scores[i]);
+    }
+    timer.stop(numDocuments);
+    return score;
+  }
+
+  /**
+   * Read a worker's output until it exits
+   * @return null if the worker succeeded, or else a description of the failure
+   */
+  private String read(int shard, Process worker, CoreferenceScore[] scores){
+    LinkedList<String> tail = new LinkedList<String>();
+    int numScores = 0;
+    try {
+      BufferedReader in = new BufferedReader(new InputStreamReader(worker.getInputStream(), "UTF-8"));
+      String line;
+      while((line = in.readLine()) != null){
+        if(line.startsWith(SCORE_PREFIX)){
+          String entry = line.substring(SCORE_PREFIX.length());
+          int split = entry.indexOf(' ');
+          int index = Integer.parseInt(entry.substring(0, split));
+          synchronized(scores){ scores[index] = CoreferenceScore.decode(entry.substring(split + 1)); }
+          numScores += 1;
+        } else {
+          tail.addLast(line);
+          if(tail.size() > LOG_TAIL){ tail.removeFirst(); }
+        }
+      }
+      int status = worker.waitFor();
+      if(status == 0){ return null; }
+      StringBuilder b = new StringBuilder();
+      b.append("Shard ").append(shard).append(" failed with status ").append(status)
+          .append(" after ").append(numScores).append(" documents; its last output was:");
+      for(String l : tail){ b.append("\n  ").append(l); }
+      return b.toString();
+    } catch (IOException e) {
+      return "Shard " + shard + " could not be read: " + e;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "Shard " + shard + " was interrupted";
+    } catch (RuntimeException e) {
+      return "Shard " + shard + " returned a bad score: " + e;
+    }
+  }
+}
@@ -0,0 +1,447 @@
+package cs224n.assignments;
+
+import cs224n.assignments.CoreferenceTester.DataType;
+import cs224n.assignments.CoreferenceTester.SerializedDatum;
+import cs224n.coref.Document;
+import cs224n.coref.Entity;
+import cs224n.coref.Mention;
+import cs224n.coref.Sentence;
+import cs224n.ling.Tree;
+import cs224n.util.StringUtils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes a synthetic corpus in the same layout as the CoNLL data, for load and
+ * scaling tests where the real data is too small or not available.
+ *
+ * Every document is a valid SerializedDatum: sentences with parse trees,
+ * gold and predicted mentions, and gold clusters. Entities are people,
+ * organizations, places and groups; an entity is introduced by name, and later
+ * referred to by name, by pronoun, or by a nominal ("the company"), so that
+ * the usual coreference cues carry signal. The corpus also gets a
+ * baby_names.dat covering the first names it uses.
+ *
+ * Usage: java cs224n.assignments.SyntheticCorpus -out [data path]
+ *          [-documents 100] [-dev 63] [-test 202]     documents per split
+ *          [-sentences 20] [-length 20]               mean sentences per document, and tokens per sentence
+ *          [-density 0.25]                            gold mentions per token
+ *          [-clusters geometric:2.5]                  cluster sizes: geometric:[mean], zipf:[exponent], uniform:[min]-[max], or fixed:[size]
+ *          [-predictedRecall 0.9] [-spurious 0.5]     how predicted mentions differ from gold mentions
+ *          [-format text|binary|pack] [-seed 42]
+ */
+public class SyntheticCorpus {
+
+  //--Vocabulary
+  private static final String[] MALE_NAMES = { "John", "Michael", "David", "James", "Robert", "William", "Richard", "Thomas", "Daniel", "Paul", "Mark", "George", "Steven", "Andrew", "Peter" };
+  private static final String[] FEMALE_NAMES = { "Mary", "Linda", "Susan", "Karen", "Nancy", "Lisa", "Sarah", "Laura", "Anna", "Emily", "Helen", "Maria", "Julia", "Diane", "Carol" };
+  private static final String[] SURNAMES = { "Smith", "Johnson", "Brown", "Miller", "Wilson", "Moore", "Taylor", "Clark", "Lewis", "Walker", "Young", "Allen", "King", "Wright", "Scott", "Green", "Baker", "Adams", "Nelson", "Hill" };
+  private static final String[] ORGANIZATIONS = { "Acme", "Globex", "Initech", "Umbrella", "Vandelay", "Hooli", "Stark", "Wayne", "Cyberdyne", "Tyrell" };
+  private static final String[] ORGANIZATION_SUFFIXES = { "Corp", "Industries", "Group", "Bank", "Systems" };
+  private static final String[] ORGANIZATION_NOMINALS = { "company", "firm", "group", "bank" };
+  private static final String[] PLACES = { "London", "Paris", "Beijing", "Chicago", "Taipei", "Boston", "Madrid", "Cairo", "Lagos", "Lima" };
+  private static final String[] PLACE_NOMINALS = { "city", "capital", "region" };
+  private static final String[] GROUP_NOMINALS = { "workers", "officials", "investors", "residents", "students" };
+  private static final String[] VERBS = { "said", "told", "met", "visited", "announced", "reported", "joined", "left", "called", "saw" };
+  private static final String[] ADVERBS = { "yesterday", "also", "later", "again", "recently" };
+  private static final String[] PREPOSITIONS = { "with", "about", "after", "before", "near" };
+  private static final String[] NON_MENTION_NOUNS = { "weather", "meeting", "deal", "plan", "report", "time", "news" };
+
+  private static enum EntityType { MALE, FEMALE, ORGANIZATION, LOCATION, GROUP }
+
+  private static class SyntheticEntity {
+    private final EntityType type;
+    private final String[] name;
+    private final String nominal;
+    private final List<Mention> mentions = new ArrayList<Mention>();
+    private boolean introduced = false;
+    private SyntheticEntity(EntityType type, String[] name, String nominal){
+      this.type = type;
+      this.name = name;
+      this.nominal = nominal;
+    }
+  }
+
+  /**
+   * A noun phrase under construction: its tokens, with their tags
+   */
+  private static class Phrase {
+    private final List<String> words = new ArrayList<String>();
+    private final List<String> tags = new ArrayList<String>();
+    private final List<String> ner = new ArrayList<String>();
+    private Phrase add(String word, String tag, String nerTag){
+      words.add(word);
+      tags.add(tag);
+      ner.add(nerTag);
+      return this;
+    }
+  }
+
+  private final Random rand;
+  private final int meanSentences;
+  private final int meanLength;
+  private final double density;
+  private final String clusterDistribution;
+  private final double[] clusterParams;
+  private final double[] zipfCDF;
+  private final double predictedRecall;
+  private final double spurious;
+
+  public SyntheticCorpus(Properties props){
+    this.rand = new Random(Long.parseLong(props.getProperty("seed", "42")));
+    this.meanSentences = Integer.parseInt(props.getProperty("sentences", "20"));
+    this.meanLength = Integer.parseInt(props.getProperty("length", "20"));
+    this.density = Double.parseDouble(props.getProperty("density", "0.25"));
+    this.predictedRecall = Double.parseDouble(props.getProperty("predictedRecall", "0.9"));
+    this.spurious = Double.parseDouble(props.getProperty("spurious", "0.5"));
+    //(error checks)
+    if(meanSentences <= 0){ throw new IllegalArgumentException("Mean sentences per document must be positive: " + meanSentences); }
+    if(meanLength <= 0){ throw new IllegalArgumentException("Mean sentence length must be positive: " + meanLength); }
+    if(density <= 0.0 || density > 1.0){ throw new IllegalArgumentException("Mention density must be in (0, 1]: " + density); }
+    //(cluster sizes)
+    String[] spec = props.getProperty("clusters", "geometric:2.5").split(":");
+    if(spec.length != 2){ throw new IllegalArgumentException("Cluster sizes must be given as [distribution]:[parameter]: " + props.getProperty("clusters")); }
+    this.clusterDistribution = spec[0].toLowerCase();
+    if(clusterDistribution.equals("uniform")){
+      String[] range = spec[1].split("-");
+      this.clusterParams = new double[]{ Double.parseDouble(range[0]), Double.parseDouble(range[1]) };
+      if(clusterParams[0] < 1 || clusterParams[1] < clusterParams[0]){ throw new IllegalArgumentException("Bad cluster size range: " + spec[1]); }
+    } else if(clusterDistribution.equals("geometric") || clusterDistribution.equals("zipf") || clusterDistribution.equals("fixed")){
+      this.clusterParams = new double[]{ Double.parseDouble(spec[1]) };
+      if(clusterParams[0] < 1.0 && !clusterDistribution.equals("zipf")){ throw new IllegalArgumentException("Cluster size must be at least 1: " + spec[1]); }
+      if(clusterParams[0] <= 0.0){ throw new IllegalArgumentException("Zipf exponent must be positive: " + spec[1]); }
+    } else {
+      throw new IllegalArgumentException("Unknown cluster size distribution: " + spec[0] + " (must be geometric, zipf, uniform, or fixed)");
+    }
+    //(zipf table, truncated at 1000 mentions)
+    if(clusterDistribution.equals("zipf")){
+      zipfCDF = new double[1000];
+      double sum = 0.0;
+      for(int k=1; k<=zipfCDF.length; k++){
+        sum += Math.pow(k, -clusterParams[0]);
+        zipfCDF[k-1] = sum;
+      }
+      for(int k=0; k<zipfCDF.length; k++){ zipfCDF[k] /= sum; }
+    } else {
+      zipfCDF = null;
+    }
+  }
+
+  private int clusterSize(){
+    if(clusterDistribution.equals("geometric")){
+      double p = 1.0 / clusterParams[0];
+      int size = 1;
+      while(rand.nextDouble() > p){ size += 1; }
+      return size;
+    } else if(clusterDistribution.equals("zipf")){
+      int index = Arrays.binarySearch(zipfCDF, rand.nextDouble());
+      return (index >= 0 ? index : -index - 1) + 1;
+    } else if(clusterDistribution.equals("uniform")){
+      int min = (int) clusterParams[0];
+      int max = (int) clusterParams[1];
+      return min + rand.nextInt(max - min + 1);
+    } else {
+      return (int) clusterParams[0];
+    }
+  }
+
+  private int around(int mean, int min){
+    return Math.max(min, mean / 2 + rand.nextInt(mean + 1));
+  }
+
+  private <E> E pick(E[] choices){
+    return choices[rand.nextInt(choices.length)];
+  }
+
+  private SyntheticEntity newEntity(Set<String> namesUsed){
+    EntityType type = EntityType.values()[rand.nextInt(EntityType.values().length)];
+    for(int attempt=0; ; attempt++){
+      String[] name;
+      String nominal;
+      switch(type){
+        case MALE:
+          name = new String[]{ pick(MALE_NAMES), pick(SURNAMES) };
+          nominal = "man";
+          break;
+        case FEMALE:
+          name = new String[]{ pick(FEMALE_NAMES), pick(SURNAMES) };
+          nominal = "woman";
+          break;
+        case ORGANIZATION:
+          name = new String[]{ pick(ORGANIZATIONS), pick(ORGANIZATION_SUFFIXES) };
+          nominal = pick(ORGANIZATION_NOMINALS);
+          break;
+        case LOCATION:
+          name = new String[]{ pick(PLACES) };
+          nominal = pick(PLACE_NOMINALS);
+          break;
+        case GROUP:
+          name = new String[0];
+          nominal = pick(GROUP_NOMINALS);
+          break;
+        default:
+          throw new IllegalStateException("Unknown entity type: " + type);
+      }
+      //(prefer names not yet used in the document)
+      String key = Arrays.toString(name) + nominal;
+      if(!namesUsed.contains(key) || attempt > 10){
+        namesUsed.add(key);
+        return new SyntheticEntity(type, name, nominal);
+      }
+    }
+  }
+
+  private Phrase realize(SyntheticEntity entity, boolean subject){
+    Phrase phrase = new Phrase();
+    String nerTag;
+    switch(entity.type){
+      case MALE: case FEMALE: nerTag = "PERSON"; break;
+      case ORGANIZATION: nerTag = "ORG"; break;
+      case LOCATION: nerTag = "GPE"; break;
+      default: nerTag = "O";
+    }
+    double form = rand.nextDouble();
+    if(entity.type == EntityType.GROUP){
+      //(case: a group, which has no name)
+      if(entity.introduced && form < 0.5){
+        phrase.add(subject ? "they" : "them", "PRP", "O");
+      } else {
+        phrase.add("the", "DT", "O").add(entity.nominal, "NNS", "O");
+      }
+    } else if(!entity.introduced || form < 0.3){
+      //(case: full name)
+      for(String word : entity.name){ phrase.add(word, "NNP", nerTag); }
+    } else if(form < 0.4 && entity.name.length > 1){
+      //(case: last name)
+      phrase.add(entity.name[entity.name.length-1], "NNP", nerTag);
+    } else if(form < 0.8){
+      //(case: pronoun)
+      String pronoun;
+      switch(entity.type){
+        case MALE: pronoun = subject ? "he" : "him"; break;
+        case FEMALE: pronoun = subject ? "she" : "her"; break;
+        default: pronoun = "it";
+      }
+      phrase.add(pronoun, "PRP", "O");
+    } else {
+      //(case: nominal)
+      phrase.add("the", "DT", "O").add(entity.nominal, "NN", "O");
+    }
+    entity.introduced = true;
+    return phrase;
+  }
+
+  /**
+   * Generate a single document
+   * @param id The document's id
+   * @return A datum holding the document, its mentions and its gold clusters
+   */
+  public SerializedDatum generate(String id){
+    //--Plan Document
+    //(sentence lengths)
+    int numSentences = around(meanSentences, 1);
+    int[] lengths = new int[numSentences];
+    int numTokens = 0;
+    for(int i=0; i<numSentences; i++){
+      lengths[i] = around(meanLength, 3);
+      numTokens += lengths[i];
+    }
+    //(entities, and the order of their mentions)
+    int numMentions = Math.max(1, (int) Math.round(density * numTokens));
+    List<SyntheticEntity> entities = new ArrayList<SyntheticEntity>();
+    List<SyntheticEntity> mentionOrder = new ArrayList<SyntheticEntity>();
+    Set<String> namesUsed = new HashSet<String>();
+    while(mentionOrder.size() < numMentions){
+      SyntheticEntity entity = newEntity(namesUsed);
+      entities.add(entity);
+      int size = Math.min(clusterSize(), numMentions - mentionOrder.size());
+      for(int i=0; i<size; i++){ mentionOrder.add(entity); }
+    }
+    Collections.shuffle(mentionOrder, rand);
+    //--Build Sentences
+    List<Sentence> sentences = new ArrayList<Sentence>();
+    Document doc = new Document(id, sentences);
+    List<Mention> goldMentions = new ArrayList<Mention>();
+    List<Mention> predictedMentions = new ArrayList<Mention>();
+    int nextMention = 0;
+    for(int s=0; s<numSentences; s++){
+      //(mentions in this sentence)
+      int numInSentence = s == numSentences - 1
+          ? mentionOrder.size() - nextMention
+          : Math.min(mentionOrder.size() - nextMention, (int) Math.round(density * lengths[s]));
+      //(tokens)
+      List<String> words = new ArrayList<String>();
+      List<String> tags = new ArrayList<String>();
+      List<String> ner = new ArrayList<String>();
+      List<Tree<String>> sChildren = new ArrayList<Tree<String>>();
+      List<Tree<String>> vpChildren = new ArrayList<Tree<String>>();
+      List<Object[]> spans = new ArrayList<Object[]>();  // {entity (or null, for a non-mention), begin, end, NP tree}
+      for(int m=0; m<numInSentence || words.size() < lengths[s] - 1; m++){
+        boolean subject = m == 0;
+        Phrase phrase;
+        SyntheticEntity entity = null;
+        if(m < numInSentence){
+          entity = mentionOrder.get(nextMention++);
+          phrase = realize(entity, subject);
+        } else {
+          phrase = new Phrase().add("the", "DT", "O").add(pick(NON_MENTION_NOUNS), "NN", "O");
+        }
+        //(objects may take a preposition)
+        if(!subject && vpChildren.size() > 1 && rand.nextBoolean()){
+          addPreterminal(vpChildren, words, tags, ner, pick(PREPOSITIONS), "IN");
+        }
+        //(the noun phrase)
+        List<Tree<String>> npChildren = new ArrayList<Tree<String>>();
+        int begin = words.size();
+        for(int i=0; i<phrase.words.size(); i++){
+          addPreterminal(npChildren, words, tags, ner, phrase.words.get(i), phrase.tags.get(i));
+          ner.set(ner.size() - 1, phrase.ner.get(i));
+        }
+        Tree<String> np = new Tree<String>("NP", npChildren);
+        (subject ? sChildren : vpChildren).add(np);
+        spans.add(new Object[]{ entity, begin, words.size(), np });
+        //(the verb follows the subject)
+        if(subject){ addPreterminal(vpChildren, words, tags, ner, pick(VERBS), "VBD"); }
+        //(maybe an adverb)
+        if(rand.nextDouble() < 0.1){ addPreterminal(vpChildren, words, tags, ner, pick(ADVERBS), "RB"); }
+      }
+      sChildren.add(new Tree<String>("VP", vpChildren));
+      addPreterminal(sChildren, words, tags, ner, ".", ".");
+      Tree<String> parse = new Tree<String>("ROOT", Collections.singletonList(new Tree<String>("S", sChildren)));
+      //(lemmas and speakers)
+      List<String> lemmas = new ArrayList<String>();
+      List<String> speakers = new ArrayList<String>();
+      for(int i=0; i<words.size(); i++){
+        String lemma = words.get(i).toLowerCase();
+        if(tags.get(i).equals("NNS") && lemma.endsWith("s")){ lemma = lemma.substring(0, lemma.length() - 1); }
+        lemmas.add(lemma);
+        speakers.add("PER0");
+      }
+      Sentence sentence = new Sentence(words, lemmas, tags, ner, speakers, parse);
+      sentences.add(sentence);
+      //(mentions)
+      for(Object[] span : spans){
+        SyntheticEntity entity = (SyntheticEntity) span[0];
+        int begin = (Integer) span[1];
+        int end = (Integer) span[2];
+        @SuppressWarnings("unchecked")
+        Tree<String> np = (Tree<String>) span[3];
+        if(entity != null){
+          Mention gold = new Mention(doc, sentence, begin, end, np, end - 1);
+          goldMentions.add(gold);
+          entity.mentions.add(gold);
+          if(rand.nextDouble() < predictedRecall){
+            predictedMentions.add(new Mention(doc, sentence, begin, end, np, end - 1));
+          }
+        } else if(rand.nextDouble() < spurious){
+          predictedMentions.add(new Mention(doc, sentence, begin, end, np, end - 1));
+        }
+      }
+    }
+    //--Gold Clusters
+    List<Entity> goldClusters = new ArrayList<Entity>();
+    for(SyntheticEntity entity : entities){
+      if(!entity.mentions.isEmpty()){ goldClusters.add(new Entity(goldMentions, entity.mentions)); }
+    }
+    doc.setMentions(goldMentions);
+    return new SerializedDatum(doc, goldMentions, predictedMentions, goldClusters);
+  }
+
+  private static Tree<String> preterminal(String word, String tag){
+    return new Tree<String>(tag, Collections.singletonList(new Tree<String>(word)));
+  }
+
+  private static void addPreterminal(List<Tree<String>> parent, List<String> words, List<String> tags, List<String> ner, String word, String tag){
+    parent.add(preterminal(word, tag));
+    words.add(word);
+    tags.add(tag);
+    ner.add("O");
+  }
+
+  /**
+   * Write a baby_names.dat covering the first names used in the corpus
+   */
+  private static void writeNames(File dataDir) throws IOException {
+    PrintWriter out = new PrintWriter(new FileWriter(new File(dataDir, "baby_names.dat")));
+    try {
+      for(int i=0; i<MALE_NAMES.length; i++){
+        out.println("2000 " + MALE_NAMES[i] + " " + String.format("%.6f", 0.01 / (i + 1)) + " boy");
+      }
+      for(int i=0; i<FEMALE_NAMES.length; i++){
+        out.println("2000 " + FEMALE_NAMES[i] + " " + String.format("%.6f", 0.01 / (i + 1)) + " girl");
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    //--Get Properties
+    Properties props = StringUtils.argsToProperties(args);
+    if(!props.containsKey("out")){
+      System.out.println("Usage: java cs224n.assignments.SyntheticCorpus -out [data path] [-documents N] [-sentences N] [-length N] [-density D] [-clusters spec] [-format text|binary|pack]");
+      System.exit(1);
+    }
+    String outPath = props.getProperty("out");
+    String format = props.getProperty("format", "text");
+    if(!format.equals("text") && !format.equals("binary") && !format.equals("pack")){
+      throw new IllegalArgumentException("Unknown format: " + format + " (must be text, binary, or pack)");
+    }
+    Map<DataType,Integer> counts = new EnumMap<DataType,Integer>(DataType.class);
+    counts.put(DataType.TRAIN, Integer.parseInt(props.getProperty("documents", "100")));
+    counts.put(DataType.DEV, Integer.parseInt(props.getProperty("dev", "63")));
+    counts.put(DataType.TEST, Integer.parseInt(props.getProperty("test", "202")));
+    SyntheticCorpus generator = new SyntheticCorpus(props);
+    //--Generate
+    new File(outPath).mkdirs();
+    writeNames(new File(outPath));
+    for(DataType type : DataType.values()){
+      int count = counts.get(type);
+      File splitDir = new File(outPath + "/" + CoreferenceTester.conllData(type));
+      System.out.print("Generating " + count + " " + type + " documents...");
+      long numMentions = 0;
+      long numTokens = 0;
+      PrintWriter index = null;
+      CorpusPack.Writer pack = null;
+      try {
+        if(format.equals("pack")){
+          pack = new CorpusPack.Writer(CorpusPack.packFile(outPath, type));
+        } else {
+          splitDir.mkdirs();
+          if(format.equals("binary")){ index = new PrintWriter(new FileWriter(new File(splitDir, CorpusConverter.INDEX_FILE))); }
+        }
+        for(int i=0; i<count; i++){
+          //(generate)
+          String name = String.format("doc%06d", i);
+          SerializedDatum datum = generator.generate("synthetic/" + type.name().toLowerCase() + "/" + name);
+          numMentions += datum.goldMentions.size();
+          for(Sentence s : datum.document.sentences){ numTokens += s.length(); }
+          //(write)
+          if(format.equals("pack")){
+            pack.add(CorpusConverter.toBinary(datum));
+          } else if(format.equals("binary")){
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(splitDir, name + CorpusConverter.BINARY_EXTENSION)));
+            try {
+              out.write(CorpusConverter.toBinary(datum));
+            } finally {
+              out.close();
+            }
+            index.println(name + CorpusConverter.BINARY_EXTENSION);
+          } else {
+            Writer out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(new File(splitDir, name + ".dat"))), "UTF-8");
+            try {
+              out.write(datum.encode());
+            } finally {
+              out.close();
+            }
+          }
+        }
+      } finally {
+        if(index != null){ index.close(); }
+        if(pack != null){ pack.close(); }
+      }
+      System.out.println("done [" + numTokens + " tokens, " + numMentions + " gold mentions]");
+    }
+  }
+}
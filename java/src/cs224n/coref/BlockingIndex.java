@@ -0,0 +1,271 @@
+package cs224n.coref;
+
+import cs224n.util.Pair;
+
+import java.util.*;
+
+/**
+ * The plausible antecedents of each mention in a document, so that a system
+ * need not compare a mention against every mention before it.
+ *
+ * Each mention is given a gender, a number, a named entity type and a person,
+ * any of which may be unknown. For each known value, a bitset holds the mentions
+ * compatible with it (those with the value, or with the attribute unknown);
+ * the candidates of a mention are the intersection of its values' bitsets,
+ * limited to mentions at most a window of sentences back. Two mentions with
+ * different known values of an attribute are never candidates of each other:
+ * <ul>
+ *   <li><b>gender: </b> from a pronoun, or the head of a name tagged PERSON</li>
+ *   <li><b>number: </b> from a pronoun, or a head noun</li>
+ *   <li><b>NER: </b> the head's tag, for mentions that are not pronouns</li>
+ *   <li><b>person: </b> first, second or third person, for pronouns only</li>
+ * </ul>
+ *
+ * Each system reads whether it blocks from its own options (see Settings);
+ * blocking is off unless enabled (with -blocking). Since it can prune true
+ * antecedents, the tester reports how many it loses on the training data.
+ */
+public class BlockingIndex {
+  private static final int UNKNOWN = -1;
+
+  /**
+   * Whether a system blocks, and how far back: read from -blocking, and
+   * -blockingWindow N, which also limits candidates to N sentences back
+   */
+  public static class Settings {
+    /** No blocking: every earlier mention is a candidate */
+    public static final Settings OFF = new Settings(false, -1);
+
+    /** Whether to search only the candidates of the index */
+    public final boolean enabled;
+    /** The number of sentences back a candidate may be, or -1 for no limit */
+    public final int sentenceWindow;
+
+    private Settings(boolean enabled, int sentenceWindow){
+      this.enabled = enabled;
+      this.sentenceWindow = sentenceWindow;
+    }
+
+    /**
+     * Read the blocking options
+     * @param props The program's options
+     * @throws IllegalArgumentException If the window is not a number of sentences
+     */
+    public static Settings read(Properties props){
+      boolean enabled = Boolean.parseBoolean(props.getProperty("blocking", "false")) || props.containsKey("blockingWindow");
+      int sentenceWindow = -2;
+      try {
+        sentenceWindow = Integer.parseInt(props.getProperty("blockingWindow", "-1"));
+      } catch(NumberFormatException e) { }
+      if(sentenceWindow < -1){
+        throw new IllegalArgumentException("not a valid blocking window: " + props.getProperty("blockingWindow") + " (must be a number of sentences)");
+      }
+      return enabled ? new Settings(true, sentenceWindow) : OFF;
+    }
+
+    /**
+     * The blocking index of a document, or null if blocking is off
+     */
+    public BlockingIndex index(Document doc){
+      return enabled ? new BlockingIndex(doc, sentenceWindow) : null;
+    }
+  }
+
+  private final Document doc;
+  private final int numMentions;
+  private final int[] firstInWindow;
+  private final int[] gender;
+  private final int[] number;
+  private final int[] ner;
+  private final int[] person;
+  private final BitSet[] genderBuckets;
+  private final BitSet[] numberBuckets;
+  private final BitSet[] personBuckets;
+  private final BitSet[] nerBuckets;
+
+  /**
+   * Index the mentions of a document
+   * @param doc The document, whose mentions are in document order
+   * @param sentenceWindow The number of sentences back a candidate may be, or -1 for no limit
+   */
+  public BlockingIndex(Document doc, int sentenceWindow){
+    List<Mention> mentions = doc.getMentions();
+    this.doc = doc;
+    this.numMentions = mentions.size();
+    this.firstInWindow = new int[numMentions];
+    this.gender = new int[numMentions];
+    this.number = new int[numMentions];
+    this.ner = new int[numMentions];
+    this.person = new int[numMentions];
+    //--Attributes
+    int[] sentence = new int[numMentions];
+    Map<String,Integer> nerIds = new HashMap<String,Integer>();
+    for(int i=0; i<numMentions; i++){
+      Mention m = mentions.get(i);
+      Sentence.Token head = m.headToken();
+      Pronoun pronoun = Pronoun.valueOrNull(m.gloss().toUpperCase().replace(' ', '_'));
+      sentence[i] = doc.indexOfSentence(m.sentence);
+      //(gender)
+      Gender g = Gender.EITHER;
+      if(pronoun != null){
+        g = pronoun.gender;
+      } else if(head.nerTag().equals("PERSON")){
+        g = Name.gender(head.word());
+      }
+      gender[i] = g == Gender.EITHER ? UNKNOWN : g.ordinal();
+      //(number)
+      if(pronoun != null){
+        number[i] = pronoun.plural ? 1 : 0;
+      } else if(head.isNoun()){
+        number[i] = head.isPluralNoun() ? 1 : 0;
+      } else {
+        number[i] = UNKNOWN;
+      }
+      //(named entity type)
+      String tag = head.nerTag();
+      if(pronoun != null || tag.equals("O")){
+        ner[i] = UNKNOWN;
+      } else {
+        Integer id = nerIds.get(tag);
+        if(id == null){
+          id = nerIds.size();
+          nerIds.put(tag, id);
+        }
+        ner[i] = id;
+      }
+      //(person)
+      person[i] = pronoun == null ? UNKNOWN : pronoun.speaker.ordinal();
+    }
+    //--Buckets
+    this.genderBuckets = buckets(gender, Gender.values().length);
+    this.numberBuckets = buckets(number, 2);
+    this.personBuckets = buckets(person, Pronoun.Speaker.values().length);
+    this.nerBuckets = buckets(ner, nerIds.size());
+    //--Sentence Window
+    for(int i=0; i<numMentions; i++){
+      int first = i;
+      if(sentenceWindow < 0){
+        first = 0;
+      } else {
+        while(first > 0 && sentence[i] - sentence[first - 1] <= sentenceWindow){ first -= 1; }
+      }
+      firstInWindow[i] = first;
+    }
+  }
+
+  /**
+   * For each known value, the mentions with that value or with no value
+   */
+  private BitSet[] buckets(int[] values, int numValues){
+    BitSet unknown = new BitSet(numMentions);
+    for(int i=0; i<numMentions; i++){
+      if(values[i] == UNKNOWN){ unknown.set(i); }
+    }
+    BitSet[] buckets = new BitSet[numValues];
+    for(int v=0; v<numValues; v++){ buckets[v] = (BitSet) unknown.clone(); }
+    for(int i=0; i<numMentions; i++){
+      if(values[i] != UNKNOWN){ buckets[values[i]].set(i); }
+    }
+    return buckets;
+  }
+
+  /**
+   * The candidate antecedents of a mention
+   * @param i The index of the mention in the document
+   * @return The indices of the plausible antecedents of the mention, all of them less than i
+   */
+  public BitSet candidates(int i){
+    BitSet candidates = new BitSet(i);
+    candidates.set(firstInWindow[i], i);
+    if(gender[i] != UNKNOWN){ candidates.and(genderBuckets[gender[i]]); }
+    if(number[i] != UNKNOWN){ candidates.and(numberBuckets[number[i]]); }
+    if(ner[i] != UNKNOWN){ candidates.and(nerBuckets[ner[i]]); }
+    if(person[i] != UNKNOWN){ candidates.and(personBuckets[person[i]]); }
+    return candidates;
+  }
+
+  /**
+   * Whether two mentions may corefer: whether the earlier is a candidate antecedent of the later.
+   * This is the same test as candidates(), for one pair, in either order.
+   * @param i The index of one mention in the document
+   * @param j The index of the other mention in the document
+   */
+  public boolean compatible(int i, int j){
+    if(i == j){ return true; }
+    int later = Math.max(i, j);
+    int earlier = Math.min(i, j);
+    return earlier >= firstInWindow[later]
+        && agree(gender, i, j) && agree(number, i, j) && agree(ner, i, j) && agree(person, i, j);
+  }
+
+  private static boolean agree(int[] values, int i, int j){
+    return values[i] == UNKNOWN || values[j] == UNKNOWN || values[i] == values[j];
+  }
+
+  /**
+   * How much blocking prunes, and how many true antecedents it loses
+   */
+  public static class Stats {
+    private long pairs = 0;
+    private long kept = 0;
+    private long anaphors = 0;
+    private long lost = 0;
+
+    /**
+     * The fraction of mentions with a gold antecedent, none of whose gold antecedents are candidates
+     */
+    public double recallLoss(){ return anaphors == 0 ? 0.0 : ((double) lost) / ((double) anaphors); }
+
+    /**
+     * The fraction of mention pairs that are candidates
+     */
+    public double keptFraction(){ return pairs == 0 ? 1.0 : ((double) kept) / ((double) pairs); }
+
+    public String toString(){
+      return String.format("kept %d of %d pairs (%.2f%%); lost every antecedent of %d of %d anaphoric mentions (recall loss %.2f%%)",
+          kept, pairs, 100.0 * keptFraction(), lost, anaphors, 100.0 * recallLoss());
+    }
+  }
+
+  /**
+   * Measure blocking against the gold clusters of the document
+   * @param gold The gold clusters of the document this index was built from
+   * @param stats The statistics to add to
+   */
+  public void measure(Collection<Entity> gold, Stats stats){
+    List<Mention> mentions = doc.getMentions();
+    Map<Mention,Entity> goldEntities = Entity.mentionToEntityMap(gold);
+    for(int i=0; i<numMentions; i++){
+      BitSet candidates = candidates(i);
+      stats.pairs += i;
+      stats.kept += candidates.cardinality();
+      Entity source = goldEntities.get(mentions.get(i));
+      boolean anaphoric = false;
+      boolean found = false;
+      for(int j=i-1; j>=0 && !found; j--){
+        if(source != null && source == goldEntities.get(mentions.get(j))){
+          anaphoric = true;
+          found = candidates.get(j);
+        }
+      }
+      if(anaphoric){
+        stats.anaphors += 1;
+        if(!found){ stats.lost += 1; }
+      }
+    }
+  }
+
+  /**
+   * Measure blocking against the gold clusters of a set of documents
+   * @param data The documents, and their gold clusters
+   * @param sentenceWindow The number of sentences back a candidate may be, or -1 for no limit
+   * @return How much blocking prunes, and how many true antecedents it loses
+   */
+  public static Stats measure(Iterable<Pair<Document,List<Entity>>> data, int sentenceWindow){
+    Stats stats = new Stats();
+    for(Pair<Document,List<Entity>> datum : data){
+      new BlockingIndex(datum.getFirst(), sentenceWindow).measure(datum.getSecond(), stats);
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,136 @@
+package cs224n.coref;
+
+import cs224n.util.LongIntMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns features as contiguous integer ids, the first time they are seen.
+ * Lookups may run concurrently with each other, but not with add().
+ *
+ * The index of a loaded model knows its features only by name (their toString()),
+ * so it cannot tell a feature from its key alone: indexOf(key) returns UNKNOWN,
+ * and the feature must be resolved by name with indexOf(key, feature). Each
+ * thread remembers the keys it has resolved, up to a bound, and then starts over.
+ */
+public class DictionaryFeatureIndex implements FeatureIndex {
+  //(the most keys a thread remembers resolving, for a loaded model)
+  private static final int MAX_RESOLVED = 1 << 16;
+
+  private final LongIntMap ids = new LongIntMap();
+  private final List<Feature> features = new ArrayList<Feature>();
+  private long[] keys = new long[16];
+  private final List<String> names;
+  private final Map<String,Integer> idsByName;
+  private final ThreadLocal<LongIntMap> resolved = new ThreadLocal<LongIntMap>(){
+    protected LongIntMap initialValue(){ return new LongIntMap(); }
+  };
+
+  /**
+   * An empty index, to be filled with add()
+   */
+  public DictionaryFeatureIndex(){
+    this.names = null;
+    this.idsByName = null;
+  }
+
+  /**
+   * The index of a saved model; feature i is the feature whose toString() is names[i]
+   * @param names The names of the features, by id
+   */
+  public DictionaryFeatureIndex(List<String> names){
+    this.names = new ArrayList<String>(names);
+    this.idsByName = new HashMap<String,Integer>();
+    for(int i=0; i<names.size(); i++){
+      if(idsByName.put(names.get(i), i) != null){ throw new IllegalArgumentException("Duplicate feature: " + names.get(i)); }
+    }
+  }
+
+  /**
+   * The id of a feature, adding it if it is new
+   * @param key The feature's key
+   * @param feature The feature to intern
+   * @return The feature's id
+   */
+  public synchronized int add(long key, Feature feature){
+    if(names != null){ throw new IllegalStateException("Cannot add features to the index of a saved model"); }
+    int id = ids.get(key, -1);
+    if(id < 0){
+      id = features.size();
+      features.add(feature);
+      if(id == keys.length){ keys = Arrays.copyOf(keys, 2 * keys.length); }
+      keys[id] = key;
+      ids.put(key, id);
+    }
+    return id;
+  }
+
+  /**
+   * The id of a feature, by its key
+   * @param key The feature's key
+   * @return The feature's id, or -1 if the index does not have it, or UNKNOWN if only indexOf(key, feature) can tell
+   */
+  public int indexOf(long key){
+    if(names == null){ return ids.get(key, -1); }
+    return resolved.get().get(key, UNKNOWN);
+  }
+
+  /**
+   * The id of a feature, resolving it by name if the index is that of a saved model
+   * @param key The feature's key
+   * @param feature The feature
+   * @return The feature's id, or -1 if the index does not have it
+   */
+  public int indexOf(long key, Feature feature){
+    if(names == null){ return ids.get(key, -1); }
+    LongIntMap cache = resolved.get();
+    int id = cache.get(key, UNKNOWN);
+    if(id == UNKNOWN){
+      Integer byName = idsByName.get(feature.toString());
+      id = byName == null ? -1 : byName;
+      if(cache.size() >= MAX_RESOLVED){ cache.clear(); }
+      cache.put(key, id);
+    }
+    return id;
+  }
+
+  /**
+   * The number of features in the index
+   */
+  public int size(){
+    if(names != null){ return names.size(); }
+    synchronized(this){ return features.size(); }
+  }
+
+  /**
+   * The key of a feature; only an index filled with add() knows its keys
+   * @param id The feature's id
+   */
+  public synchronized long key(int id){
+    if(names != null){ throw new IllegalStateException("The index of a saved model only has feature names"); }
+    if(id < 0 || id >= features.size()){ throw new IndexOutOfBoundsException("" + id); }
+    return keys[id];
+  }
+
+  /**
+   * The feature with an id; only an index filled with add() knows its features
+   * @param id The feature's id
+   */
+  public Feature feature(int id){
+    if(names != null){ throw new IllegalStateException("The index of a saved model only has feature names"); }
+    synchronized(this){ return features.get(id); }
+  }
+
+  /**
+   * The name of a feature (its toString())
+   * @param id The feature's id
+   */
+  public String name(int id){
+    if(names != null){ return names.get(id); }
+    synchronized(this){ return features.get(id).toString(); }
+  }
+}
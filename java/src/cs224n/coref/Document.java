@@ -1,7 +1,12 @@
 package cs224n.coref;
 
 import cs224n.util.Decodable;
+import cs224n.util.IOUtils;
+import cs224n.util.Indexer;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -276,4 +281,22 @@ public class Document implements Serializable, Decodable {
     }
     return new Document(id, sentences);
   }
+
+  public void encodeBinary(DataOutput out, Indexer<String> strings) throws IOException {
+    IOUtils.writeVarInt(out, strings.addAndGetIndex(id));
+    IOUtils.writeVarInt(out, sentences.size());
+    for(Sentence s : sentences){
+      s.encodeBinary(out, strings);
+    }
+  }
+
+  public static Document decodeBinary(DataInput in, List<String> strings) throws IOException {
+    String id = strings.get(IOUtils.readVarInt(in));
+    int numSentences = IOUtils.readVarInt(in);
+    List<Sentence> sentences = new ArrayList<Sentence>(numSentences);
+    for(int i=0; i<numSentences; i++){
+      sentences.add(Sentence.decodeBinary(in, strings));
+    }
+    return new Document(id, sentences);
+  }
 }
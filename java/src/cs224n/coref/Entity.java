@@ -2,10 +2,15 @@ package cs224n.coref;
 
 import cs224n.util.Ansi;
 import cs224n.util.Decodable;
+import cs224n.util.IOUtils;
 import cs224n.util.Pair;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Denotes a real-world entity, as defined by a set of mentions.
@@ -14,7 +19,7 @@ import java.util.*;
  */
 public class Entity implements Serializable, Decodable, Iterable<Mention> {
   private static final long serialVersionUID = 1L;
-  private static int nextUniqueID = 0;
+  private static final AtomicInteger nextUniqueID = new AtomicInteger(0);
 
   private final List<Mention> mentionList;
   /**
@@ -25,7 +30,7 @@ public class Entity implements Serializable, Decodable, Iterable<Mention> {
   /**
    * A unique ID for this entity
    */
-  public final int uniqueID = nextUniqueID++; //set, then increment
+  public final int uniqueID = nextUniqueID.getAndIncrement(); //set, then increment
 
   /**
    * Create an empty entity.
@@ -291,4 +296,31 @@ public class Entity implements Serializable, Decodable, Iterable<Mention> {
     }
     return new Entity(mentionList,mentions);
   }
+
+  /**
+   * Write this entity as the sorted indices of its mentions
+   * @param out The output to write to
+   * @param indices The index of every mention in the list of all possible mentions
+   */
+  public void encodeBinary(DataOutput out, Map<Mention,Integer> indices) throws IOException {
+    int[] sorted = new int[mentions.size()];
+    int i = 0;
+    for(Mention m : mentions){
+      sorted[i++] = indices.get(m);
+    }
+    Arrays.sort(sorted);
+    IOUtils.writeVarInt(out, sorted.length);
+    for(int index : sorted){
+      IOUtils.writeVarInt(out, index);
+    }
+  }
+
+  public static Entity decodeBinary(DataInput in, List<Mention> mentionList) throws IOException {
+    int size = IOUtils.readVarInt(in);
+    List<Mention> mentions = new ArrayList<Mention>(size);
+    for(int i=0; i<size; i++){
+      mentions.add(mentionList.get(IOUtils.readVarInt(in)));
+    }
+    return new Entity(mentionList,mentions);
+  }
 }
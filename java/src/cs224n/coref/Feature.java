@@ -78,10 +78,18 @@ public interface Feature {
 
         public BucketIndicator(int value, int max, int numBuckets) {
             this.numBuckets = numBuckets;
-            bucket = value * numBuckets / max;
+            bucket = bucket(value, max, numBuckets);
+        }
+
+        /**
+         * The bucket a value falls in
+         */
+        public static int bucket(int value, int max, int numBuckets) {
+            int bucket = value * numBuckets / max;
             if (bucket < 0 || bucket >= numBuckets) {
                 throw new IllegalStateException("Bucket out of range: " + value + " max=" + max + " numbuckets=" + numBuckets);
             }
+            return bucket;
         }
 
         public boolean equals(Object o) {
@@ -218,7 +226,9 @@ public interface Feature {
     }
 
     public static class MentionEditDistance extends BucketIndicator {
-        public MentionEditDistance(int dist) {super(dist, 500, 20);}
+        public static final int MAX = 500;
+        public static final int NUM_BUCKETS = 20;
+        public MentionEditDistance(int dist) {super(dist, MAX, NUM_BUCKETS);}
     }
 
     public static class GenderExactMatch extends Indicator {
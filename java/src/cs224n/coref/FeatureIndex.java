@@ -0,0 +1,49 @@
+package cs224n.coref;
+
+/**
+ * Gives each feature an integer id, which a classifier's weights are indexed by.
+ * A feature is looked up by its key: a 64-bit hash of its class and value,
+ * which the caller computes without building the feature (equal features must
+ * have equal keys). The feature itself is only needed when it is added.
+ *
+ * See {@link DictionaryFeatureIndex} (contiguous ids, one per distinct feature)
+ * and {@link HashedFeatureIndex} (a fixed number of ids, which features may share).
+ */
+public interface FeatureIndex {
+  /** Returned by indexOf(key) if the index can only find the feature with indexOf(key, feature) */
+  public static final int UNKNOWN = -2;
+
+  /**
+   * The id of a feature, adding it if it is new
+   * @param key The feature's key
+   * @param feature The feature
+   * @return The feature's id
+   */
+  public int add(long key, Feature feature);
+
+  /**
+   * The id of a feature, by its key
+   * @param key The feature's key
+   * @return The feature's id, or -1 if the index does not have it, or UNKNOWN if only indexOf(key, feature) can tell
+   */
+  public int indexOf(long key);
+
+  /**
+   * The id of a feature, by its key or, if need be, by the feature itself
+   * @param key The feature's key
+   * @param feature The feature
+   * @return The feature's id, or -1 if the index does not have it
+   */
+  public int indexOf(long key, Feature feature);
+
+  /**
+   * The number of ids; every id is below this
+   */
+  public int size();
+
+  /**
+   * A name for the feature(s) with an id, for printing
+   * @param id The id
+   */
+  public String name(int id);
+}
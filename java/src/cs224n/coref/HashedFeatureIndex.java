@@ -0,0 +1,97 @@
+package cs224n.coref;
+
+import cs224n.util.LongIntMap;
+
+import java.util.BitSet;
+
+/**
+ * A feature index with a fixed number of ids (2^bits), which hashes each
+ * feature straight to its id instead of keeping a dictionary of features
+ * (the "hashing trick"). Distinct features may share an id; the weights of a
+ * model then cannot exceed 2^bits, however many features its templates make.
+ *
+ * A feature's id is the low bits of its key, which is a hash of the feature's
+ * class and value, so it is the same in every JVM, and a saved model needs only
+ * its bits and weights. Lookups are stateless, and may run concurrently with
+ * each other and with add().
+ *
+ * While training, add() records the keys it is given and the ids they take
+ * (in primitive arrays), so the number of distinct features and of collisions
+ * can be reported. The features themselves are not kept: an id's name is "#id".
+ */
+public class HashedFeatureIndex implements FeatureIndex {
+  public static final int MAX_BITS = 24;
+
+  private final int bits;
+  private final int mask;
+  private final BitSet occupied = new BitSet();
+  private final LongIntMap seen = new LongIntMap();
+
+  /**
+   * @param bits The log (base 2) of the number of ids
+   */
+  public HashedFeatureIndex(int bits){
+    if(bits <= 0 || bits > MAX_BITS){ throw new IllegalArgumentException("Hash bits must be between 1 and " + MAX_BITS + ": " + bits); }
+    this.bits = bits;
+    this.mask = (1 << bits) - 1;
+  }
+
+  public int bits(){ return bits; }
+
+  private int slot(long key){ return (int) (key & mask); }
+
+  /**
+   * The id of a feature, recording it for the collision statistics
+   */
+  public int add(long key, Feature feature){
+    int id = slot(key);
+    synchronized(this){
+      if(seen.get(key, -1) < 0){
+        seen.put(key, id);
+        occupied.set(id);
+      }
+    }
+    return id;
+  }
+
+  /**
+   * The id of a feature; every feature has one
+   */
+  public int indexOf(long key){
+    return slot(key);
+  }
+
+  public int indexOf(long key, Feature feature){
+    return slot(key);
+  }
+
+  /**
+   * The number of ids, 2^bits
+   */
+  public int size(){ return mask + 1; }
+
+  public String name(int id){
+    return "#" + id;
+  }
+
+  /**
+   * The number of distinct features added
+   */
+  public synchronized int numFeatures(){ return seen.size(); }
+
+  /**
+   * The number of ids some added feature hashed to
+   */
+  public synchronized int numOccupied(){ return occupied.cardinality(); }
+
+  /**
+   * The number of added features which share their id with an earlier one
+   */
+  public synchronized int numCollisions(){ return numFeatures() - numOccupied(); }
+
+  public synchronized String toString(){
+    return String.format("%d features in %d of %d ids (%d collisions; %.2f%% of features)",
+        numFeatures(), numOccupied(), size(), numCollisions(),
+        numFeatures() == 0 ? 0.0 : 100.0 * numCollisions() / numFeatures());
+  }
+}
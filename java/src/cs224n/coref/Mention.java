@@ -2,7 +2,12 @@ package cs224n.coref;
 
 import cs224n.ling.Tree;
 import cs224n.util.Decodable;
+import cs224n.util.IOUtils;
+import cs224n.util.Indexer;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -47,6 +52,10 @@ public class Mention implements Serializable, Decodable {
    * Marks the entity this mention is coreferent with
    */
   protected Entity corefferentWith = null;
+  /**
+   * The gloss, built the first time it is asked for (see gloss())
+   */
+  private transient String gloss = null;
 
   public Entity getEntity() {
 	  return corefferentWith;
@@ -94,13 +103,19 @@ public class Mention implements Serializable, Decodable {
    * @return The gloss for this mention
    */
   public String gloss(){
-    StringBuilder b = new StringBuilder();
-    List<String> words = text();
-    for(int i=0; i<words.size()-1; i++){
-      b.append(words.get(i)).append(" ");
+    //(a mention's words never change, so its gloss is built once; a racing thread at worst builds an equal one)
+    String gloss = this.gloss;
+    if(gloss == null){
+      StringBuilder b = new StringBuilder();
+      List<String> words = text();
+      for(int i=0; i<words.size()-1; i++){
+        b.append(words.get(i)).append(" ");
+      }
+      if(words.size() > 0){ b.append(words.get(words.size()-1)); }
+      gloss = b.toString();
+      this.gloss = gloss;
     }
-    if(words.size() > 0){ b.append(words.get(words.size()-1)); }
-    return b.toString();
+    return gloss;
   }
 
   /**
@@ -211,4 +226,21 @@ public class Mention implements Serializable, Decodable {
     Tree<String> subParse = Tree.decode(m.group(5));
     return new Mention(doc, doc.sentences.get(sentenceIndex), beginIndex, endIndex, subParse, head);
   }
+
+  public void encodeBinary(DataOutput out, Indexer<String> strings) throws IOException {
+    IOUtils.writeVarInt(out, doc.indexOfSentence(sentence));
+    IOUtils.writeVarInt(out, beginIndexInclusive);
+    IOUtils.writeVarInt(out, endIndexExclusive);
+    IOUtils.writeVarInt(out, headWordIndex);
+    parse.encodeBinary(out, strings);
+  }
+
+  public static Mention decodeBinary(DataInput in, List<String> strings, Document doc) throws IOException {
+    int sentenceIndex = IOUtils.readVarInt(in);
+    int beginIndex = IOUtils.readVarInt(in);
+    int endIndex = IOUtils.readVarInt(in);
+    int head = IOUtils.readVarInt(in);
+    Tree<String> subParse = Tree.decodeBinary(in, strings);
+    return new Mention(doc, doc.sentences.get(sentenceIndex), beginIndex, endIndex, subParse, head);
+  }
 }
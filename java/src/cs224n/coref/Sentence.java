@@ -1,9 +1,16 @@
 package cs224n.coref;
 
+import cs224n.ling.Constituent;
 import cs224n.ling.Tree;
+import cs224n.ling.Trees;
 import cs224n.util.Decodable;
+import cs224n.util.IOUtils;
+import cs224n.util.Indexer;
 import cs224n.util.Pair;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
@@ -121,6 +128,11 @@ public class Sentence implements Serializable, Decodable {
    */
   public final List<Token> tokens;
 
+  /**
+   * The constituents of the normalized parse, by span (built lazily; see constituentAt())
+   */
+  private transient volatile Map<Long,Constituent<String>> constituentsBySpan;
+
   public Sentence(List<String> words,
                   List<String> lemmas,
                   List<String> posTags,
@@ -152,6 +164,32 @@ public class Sentence implements Serializable, Decodable {
    * @return The length of the sentence
    */
   public int length(){ return words.size(); }
+
+  /**
+   * The constituent of the normalized parse which spans exactly the given words.
+   * The constituents are indexed by span the first time this is called on the sentence;
+   * if a unary chain has several constituents over the same span, the lowest one is returned.
+   * @param beginInclusive The index of the first word of the span
+   * @param endExclusive The index after the last word of the span
+   * @return The constituent, or null if no constituent spans these words
+   */
+  public Constituent<String> constituentAt(int beginInclusive, int endExclusive){
+    Map<Long,Constituent<String>> index = constituentsBySpan;
+    if(index == null){
+      //(build the index; racing threads build equal ones)
+      index = new HashMap<Long,Constituent<String>>();
+      for(Constituent<String> constit : new Trees.StandardTreeNormalizer().transformTree(parse).toConstituentList()){
+        Long span = span(constit.getStart(), constit.getEnd());
+        if(!index.containsKey(span)){ index.put(span, constit); }
+      }
+      constituentsBySpan = index;
+    }
+    return index.get(span(beginInclusive, endExclusive));
+  }
+
+  private static Long span(int beginInclusive, int endExclusive){
+    return (((long) beginInclusive) << 32) | (endExclusive & 0xFFFFFFFFL);
+  }
   public String gloss(){
     StringBuilder b = new StringBuilder();
     for(int i=0; i<words.size()-1; i++){
@@ -332,4 +370,39 @@ public class Sentence implements Serializable, Decodable {
     //--Return
     return new Sentence(words,lemmas,posTags,nerTags,speakersOfWord,parse);
   }
+
+  public void encodeBinary(DataOutput out, Indexer<String> strings) throws IOException {
+    //--Save Words
+    IOUtils.writeVarInt(out, length());
+    for(int i=0; i<length(); i++){
+      IOUtils.writeVarInt(out, strings.addAndGetIndex(words.get(i)));
+      IOUtils.writeVarInt(out, strings.addAndGetIndex(lemmas.get(i)));
+      IOUtils.writeVarInt(out, strings.addAndGetIndex(posTags.get(i)));
+      IOUtils.writeVarInt(out, strings.addAndGetIndex(nerTags.get(i)));
+      IOUtils.writeVarInt(out, strings.addAndGetIndex(speakersOfWord.get(i)));
+    }
+    //--Save Parse
+    parse.encodeBinary(out, strings);
+  }
+
+  public static Sentence decodeBinary(DataInput in, List<String> strings) throws IOException {
+    //--Parse Terms
+    int length = IOUtils.readVarInt(in);
+    List<String> words = new ArrayList<String>(length);
+    List<String> lemmas = new ArrayList<String>(length);
+    List<String> posTags = new ArrayList<String>(length);
+    List<String> nerTags = new ArrayList<String>(length);
+    List<String> speakersOfWord = new ArrayList<String>(length);
+    for(int i=0; i<length; i++){
+      words.add(strings.get(IOUtils.readVarInt(in)));
+      lemmas.add(strings.get(IOUtils.readVarInt(in)));
+      posTags.add(strings.get(IOUtils.readVarInt(in)));
+      nerTags.add(strings.get(IOUtils.readVarInt(in)));
+      speakersOfWord.add(strings.get(IOUtils.readVarInt(in)));
+    }
+    //(parse)
+    Tree<String> parse = Tree.decodeBinary(in, strings);
+    //--Return
+    return new Sentence(words,lemmas,posTags,nerTags,speakersOfWord,parse);
+  }
 }
@@ -1,19 +1,32 @@
 package cs224n.corefsystems;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
 
+import cs224n.coref.BlockingIndex;
 import cs224n.coref.ClusteredMention;
 import cs224n.coref.Document;
 import cs224n.coref.Entity;
 import cs224n.coref.Mention;
 import cs224n.util.Pair;
 
-public class BetterBaseline implements CoreferenceSystem {
+public class BetterBaseline implements CoreferenceSystem, PersistentModel, Configurable {
 	HashMap<String, HashSet<String>> coreferentHeads = new HashMap<String, HashSet<String>>();
+	// Whether to search only the candidates of a blocking index (set by -blocking and -blockingWindow).
+	BlockingIndex.Settings blockingSettings = BlockingIndex.Settings.OFF;
+
+	@Override
+	public void configure(Properties props) {
+		blockingSettings = BlockingIndex.Settings.read(props);
+	}
 
 	@Override
 	public void train(Collection<Pair<Document, List<Entity>>> trainingData) {
@@ -34,16 +47,31 @@ public class BetterBaseline implements CoreferenceSystem {
 		}
 	}
 
+	@Override
+	public void saveModel(DataOutput out) throws IOException {
+		ModelIO.writeStringSets(out, coreferentHeads);
+	}
+
+	@Override
+	public void loadModel(DataInput in) throws IOException {
+		coreferentHeads = ModelIO.readStringSets(in);
+	}
+
 	@Override
 	public List<ClusteredMention> runCoreference(Document doc) {
 		HashMap<String, ClusteredMention> seenHeads = new HashMap<String, ClusteredMention>();
 		ArrayList<ClusteredMention> clusters = new ArrayList<ClusteredMention>();
+		BlockingIndex blocking = blockingSettings.index(doc);
 		for (Mention m : doc.getMentions()) {
 			String referringHead = m.headWord();
 			boolean foundCoreferent = false;
+			// Only search the candidates not blocked (clusters has one entry per earlier mention).
+			BitSet allowed = blocking != null ? blocking.candidates(clusters.size()) : null;
 			
 			// Try exact matching first.
-			for (ClusteredMention seenMentions : clusters) {
+			for (int j = 0; j < clusters.size(); j++) {
+				if (allowed != null && !allowed.get(j)) continue;
+				ClusteredMention seenMentions = clusters.get(j);
 				if(m.gloss().equals(seenMentions.mention.gloss())) {
 					ClusteredMention cm = m.markCoreferent(seenMentions);
 					clusters.add(cm);
@@ -57,6 +85,7 @@ public class BetterBaseline implements CoreferenceSystem {
 				for (String referredHead : coreferentHeads.get(referringHead)) {
 					if (seenHeads.containsKey(referredHead)) {
 						ClusteredMention oldCm = seenHeads.get(referredHead);
+						if (allowed != null && !allowed.get(doc.indexOfMention(oldCm.mention))) continue;
 						ClusteredMention newCm = m.markCoreferent(oldCm);
 						clusters.add(newCm);
 						seenHeads.put(referringHead, oldCm);
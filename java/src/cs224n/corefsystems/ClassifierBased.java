@@ -2,26 +2,50 @@ package cs224n.corefsystems;
 
 import cs224n.coref.*;
 import cs224n.ling.Constituent;
-import cs224n.ling.Trees;
+import cs224n.util.IOUtils;
+import cs224n.util.OnlineLearner;
 import cs224n.util.Pair;
+import cs224n.util.Profiler;
+import cs224n.util.SparseVector;
+import cs224n.util.StringSimilarity;
 import edu.stanford.nlp.classify.LinearClassifier;
 import edu.stanford.nlp.classify.LinearClassifierFactory;
 import edu.stanford.nlp.classify.RVFDataset;
-import edu.stanford.nlp.ling.RVFDatum;
 import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.util.Triple;
 import edu.stanford.nlp.util.logging.RedwoodConfiguration;
 import edu.stanford.nlp.util.logging.StanfordRedwoodConfiguration;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static edu.stanford.nlp.util.logging.Redwood.Util.*;
 
 /**
  * @author Gabor Angeli (angeli at cs.stanford)
  */
-public class ClassifierBased implements CoreferenceSystem {
+public class ClassifierBased implements CoreferenceSystem, PersistentModel, Configurable {
+
+	private static final String MAXENT = "maxent";
+	private static final String PERCEPTRON = "perceptron";
+	private static final String ADAGRAD = "adagrad";
+	private static final double LEARNING_RATE = 0.1; //the base learning rate of ADAGRAD
+	/** How to train: MAXENT (on every datum at once), or one of the online learners (set by -learner) */
+	private String learner = MAXENT;
+	/** The number of passes an online learner makes over the training documents (set by -epochs) */
+	private int epochs = 10;
+	/** If positive, features are hashed to 2^hashBits weights instead of indexed (set by -hashBits) */
+	private int hashBits = 0;
+	/** The number of threads training features are extracted on (set by -threads) */
+	private int numThreads = 1;
+	/** Whether to search only the candidates of a blocking index (set by -blocking and -blockingWindow) */
+	private BlockingIndex.Settings blocking = BlockingIndex.Settings.OFF;
 
 	private static <E> Set<E> mkSet(E[] array){
 		Set<E> rtn = new HashSet<E>();
@@ -62,7 +86,338 @@ public class ClassifierBased implements CoreferenceSystem {
 	});
 
 
-	private LinearClassifier<Boolean,Feature> classifier;
+	/**
+	 * What a feature depends on: only the anaphor (m_i), only the candidate
+	 * antecedent (m_j), or both. Anaphor and candidate features are extracted once
+	 * per mention, and only pair features are extracted for every pair.
+	 */
+	private static enum Stage { ANAPHOR, CANDIDATE, PAIR }
+
+	/**
+	 * Extracts one feature from a candidate pair.
+	 * Each active feature is resolved to its template once, when the class is loaded;
+	 * extracting a pair's features is then a loop over the compiled templates.
+	 * A template also gives the key of the feature it extracts (see FeatureIndex),
+	 * without building the feature, so that known features are looked up without allocating.
+	 */
+	private static abstract class Template {
+		public final Stage stage;
+		protected Template(Stage stage){ this.stage = stage; }
+		/**
+		 * An anaphor feature is extracted with a null candidate, and a candidate feature with a null anaphor.
+		 * @param onPrix The first mention (referred to as m_i in the handout)
+		 * @param candidate The second mention (referred to as m_j in the handout), and the cluster containing it
+		 * @return The feature, or null if the pair does not have this feature
+		 */
+		public abstract Feature extract(Mention onPrix, ClusteredMention candidate);
+		/**
+		 * The key of the feature extract() returns: a hash of its class and value, so that
+		 * equal features have equal keys (like PairFeature.equals(), the key of a pair
+		 * ignores which subclass of PairFeature it is)
+		 * @return The key, or NO_FEATURE if the pair does not have this feature
+		 */
+		public abstract long key(Mention onPrix, ClusteredMention candidate);
+	}
+
+	private static final long NO_FEATURE = Long.MIN_VALUE;
+	private static final long PAIR_SEED = fingerprint("PairFeature");
+
+	/**
+	 * A 64-bit hash of a string: FNV-1a over its characters, then mixed
+	 */
+	private static long fingerprint(String str){
+		long h = 0xcbf29ce484222325L;
+		for(int i=0; i<str.length(); i++){
+			h ^= str.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return mix(h);
+	}
+
+	/**
+	 * Mix the bits of a hash, so that every bit of the result depends on every bit of the input
+	 */
+	private static long mix(long h){
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * The key of a feature value, given the key (or seed) of what it belongs to
+	 */
+	private static long combine(long seed, long value){
+		return mix(seed ^ mix(value + 0x9E3779B97F4A7C15L));
+	}
+
+	/**
+	 * A template for an Indicator feature
+	 */
+	private static abstract class IndicatorTemplate extends Template {
+		private final long seed;
+		protected IndicatorTemplate(Stage stage, Class<? extends Feature.Indicator> clazz){
+			super(stage);
+			this.seed = fingerprint(clazz.getSimpleName());
+		}
+		protected abstract boolean value(Mention onPrix, ClusteredMention cand);
+		protected abstract Feature feature(boolean value);
+		public Feature extract(Mention onPrix, ClusteredMention cand){ return feature(value(onPrix, cand)); }
+		public long key(Mention onPrix, ClusteredMention cand){ return combine(seed, value(onPrix, cand) ? 1L : 0L); }
+	}
+
+	/**
+	 * A template for an IntIndicator or BucketIndicator feature
+	 */
+	private static abstract class IntTemplate extends Template {
+		private final long seed;
+		protected IntTemplate(Stage stage, Class<? extends Feature> clazz){
+			super(stage);
+			this.seed = fingerprint(clazz.getSimpleName());
+		}
+		protected abstract int value(Mention onPrix, ClusteredMention cand);
+		protected abstract Feature feature(int value);
+		/** The value the feature keeps (e.g., its bucket), which its key is of */
+		protected int kept(int value){ return value; }
+		public Feature extract(Mention onPrix, ClusteredMention cand){ return feature(value(onPrix, cand)); }
+		public long key(Mention onPrix, ClusteredMention cand){ return combine(seed, kept(value(onPrix, cand))); }
+	}
+
+	/**
+	 * A template for a StringIndicator feature
+	 */
+	private static abstract class StringTemplate extends Template {
+		private final long seed;
+		protected StringTemplate(Stage stage, Class<? extends Feature.StringIndicator> clazz){
+			super(stage);
+			this.seed = fingerprint(clazz.getSimpleName());
+		}
+		protected abstract String value(Mention onPrix, ClusteredMention cand);
+		protected abstract Feature feature(String value);
+		public Feature extract(Mention onPrix, ClusteredMention cand){ return feature(value(onPrix, cand)); }
+		public long key(Mention onPrix, ClusteredMention cand){ return combine(seed, fingerprint(value(onPrix, cand))); }
+	}
+
+	/**
+	 * The conjunction of two templates (a pair feature).
+	 */
+	private static class Conjunction extends Template {
+		private final Template first;
+		private final Template second;
+		private Conjunction(Template first, Template second){
+			super(first.stage == second.stage ? first.stage : Stage.PAIR);
+			this.first = first;
+			this.second = second;
+		}
+		/** The pair feature of the two features */
+		protected Feature pair(Feature a, Feature b){ return new Feature.PairFeature(a, b); }
+		public Feature extract(Mention onPrix, ClusteredMention candidate){
+			Feature a = first.extract(onPrix, candidate);
+			if(a == null){ return null; }
+			Feature b = second.extract(onPrix, candidate);
+			if(b == null){ return null; }
+			return pair(a, b);
+		}
+		public long key(Mention onPrix, ClusteredMention candidate){
+			long a = first.key(onPrix, candidate);
+			if(a == NO_FEATURE){ return NO_FEATURE; }
+			long b = second.key(onPrix, candidate);
+			if(b == NO_FEATURE){ return NO_FEATURE; }
+			return combine(combine(PAIR_SEED, a), b);
+		}
+	}
+
+	private static final Map<Class<?>,Template> TEMPLATES = new HashMap<Class<?>,Template>();
+	static {
+		TEMPLATES.put(Feature.ExactMatch.class, new IndicatorTemplate(Stage.PAIR, Feature.ExactMatch.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				//(exact string match)
+				return onPrix.gloss().equals(cand.mention.gloss());
+			}
+			protected Feature feature(boolean value){ return new Feature.ExactMatch(value); }
+		});
+		TEMPLATES.put(Feature.MentionDistIndicator.class, new IntTemplate(Stage.PAIR, Feature.MentionDistIndicator.class){
+			protected int value(Mention onPrix, ClusteredMention cand){
+				Document document = onPrix.doc;
+				return document.indexOfMention(onPrix) - document.indexOfMention(cand.mention);
+			}
+			protected Feature feature(int value){ return new Feature.MentionDistIndicator(value); }
+		});
+		TEMPLATES.put(Feature.CandidatePronounIndicator.class, new IndicatorTemplate(Stage.CANDIDATE, Feature.CandidatePronounIndicator.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				return Pronoun.isSomePronoun(cand.mention.headWord());
+			}
+			protected Feature feature(boolean value){ return new Feature.CandidatePronounIndicator(value); }
+		});
+		TEMPLATES.put(Feature.FixedPronounIndicator.class, new IndicatorTemplate(Stage.ANAPHOR, Feature.FixedPronounIndicator.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				return Pronoun.isSomePronoun(onPrix.headWord());
+			}
+			protected Feature feature(boolean value){ return new Feature.FixedPronounIndicator(value); }
+		});
+		TEMPLATES.put(Feature.PronounPair.class, new Conjunction(template(Feature.CandidatePronounIndicator.class), template(Feature.FixedPronounIndicator.class)){
+			protected Feature pair(Feature cand, Feature fixed){
+				return new Feature.PronounPair((Feature.CandidatePronounIndicator) cand, (Feature.FixedPronounIndicator) fixed);
+			}
+		});
+		TEMPLATES.put(Feature.CandidateNER.class, new StringTemplate(Stage.CANDIDATE, Feature.CandidateNER.class){
+			protected String value(Mention onPrix, ClusteredMention cand){
+				return cand.mention.headToken().nerTag();
+			}
+			protected Feature feature(String value){ return new Feature.CandidateNER(value); }
+		});
+		TEMPLATES.put(Feature.FixedNER.class, new StringTemplate(Stage.ANAPHOR, Feature.FixedNER.class){
+			protected String value(Mention onPrix, ClusteredMention cand){
+				return onPrix.headToken().nerTag();
+			}
+			protected Feature feature(String value){ return new Feature.FixedNER(value); }
+		});
+		TEMPLATES.put(Feature.NERPair.class, new Conjunction(template(Feature.CandidateNER.class), template(Feature.FixedNER.class)){
+			protected Feature pair(Feature cand, Feature fixed){
+				return new Feature.NERPair((Feature.CandidateNER) cand, (Feature.FixedNER) fixed);
+			}
+		});
+		TEMPLATES.put(Feature.HeadWordEditDistance.class, new IntTemplate(Stage.PAIR, Feature.HeadWordEditDistance.class){
+			protected int value(Mention onPrix, ClusteredMention cand){
+				return StringSimilarity.levenshtein(cand.mention.headWord(), onPrix.headWord());
+			}
+			protected Feature feature(int value){ return new Feature.HeadWordEditDistance(value); }
+		});
+		TEMPLATES.put(Feature.MentionEditDistance.class, new IntTemplate(Stage.PAIR, Feature.MentionEditDistance.class){
+			protected int value(Mention onPrix, ClusteredMention cand){
+				//(distances of MAX or more share the last bucket, so the distance is not computed past it)
+				int max = Feature.MentionEditDistance.MAX - 1;
+				return Math.min(StringSimilarity.levenshtein(cand.mention.gloss(), onPrix.gloss(), max), max);
+			}
+			protected Feature feature(int value){ return new Feature.MentionEditDistance(value); }
+			protected int kept(int value){
+				return Feature.BucketIndicator.bucket(value, Feature.MentionEditDistance.MAX, Feature.MentionEditDistance.NUM_BUCKETS);
+			}
+		});
+		TEMPLATES.put(Feature.GenderCompatible.class, new IndicatorTemplate(Stage.PAIR, Feature.GenderCompatible.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				Gender onPrixGender = getGender(onPrix.headToken());
+				Gender candidateGender = getGender(cand.mention.headToken());
+				return onPrixGender == candidateGender ||
+						(onPrixGender.isAnimate() && candidateGender == Gender.EITHER) ||
+						(candidateGender.isAnimate() && onPrixGender == Gender.EITHER);
+			}
+			protected Feature feature(boolean value){ return new Feature.GenderCompatible(value); }
+		});
+		TEMPLATES.put(Feature.GenderExactMatch.class, new IndicatorTemplate(Stage.PAIR, Feature.GenderExactMatch.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				return getGender(onPrix.headToken()) == getGender(cand.mention.headToken());
+			}
+			protected Feature feature(boolean value){ return new Feature.GenderExactMatch(value); }
+		});
+		TEMPLATES.put(Feature.NumberCompatible.class, new IndicatorTemplate(Stage.PAIR, Feature.NumberCompatible.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				return onPrix.headToken().isPluralNoun() == cand.mention.headToken().isPluralNoun() ||
+						!onPrix.headToken().isNoun() || !cand.mention.headToken().isNoun();
+			}
+			protected Feature feature(boolean value){ return new Feature.NumberCompatible(value); }
+		});
+		TEMPLATES.put(Feature.NumberExactMatch.class, new IndicatorTemplate(Stage.PAIR, Feature.NumberExactMatch.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				return onPrix.headToken().isNoun() && cand.mention.headToken().isNoun() &&
+						onPrix.headToken().isPluralNoun() == onPrix.headToken().isPluralNoun();
+			}
+			protected Feature feature(boolean value){ return new Feature.NumberExactMatch(value); }
+		});
+		TEMPLATES.put(Feature.NERMatch.class, new IndicatorTemplate(Stage.PAIR, Feature.NERMatch.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				return onPrix.headToken().nerTag().equals(cand.mention.headToken().nerTag());
+			}
+			protected Feature feature(boolean value){ return new Feature.NERMatch(value); }
+		});
+		TEMPLATES.put(Feature.CandidatePOS.class, new StringTemplate(Stage.CANDIDATE, Feature.CandidatePOS.class){
+			protected String value(Mention onPrix, ClusteredMention cand){
+				return cand.mention.headToken().posTag();
+			}
+			protected Feature feature(String value){ return new Feature.CandidatePOS(value); }
+		});
+		TEMPLATES.put(Feature.FixedPOS.class, new StringTemplate(Stage.ANAPHOR, Feature.FixedPOS.class){
+			protected String value(Mention onPrix, ClusteredMention cand){
+				return onPrix.headToken().posTag();
+			}
+			protected Feature feature(String value){ return new Feature.FixedPOS(value); }
+		});
+		TEMPLATES.put(Feature.POSPair.class, new Conjunction(template(Feature.CandidatePOS.class), template(Feature.FixedPOS.class)){
+			protected Feature pair(Feature cand, Feature fixed){
+				return new Feature.POSPair((Feature.CandidatePOS) cand, (Feature.FixedPOS) fixed);
+			}
+		});
+		TEMPLATES.put(Feature.SpeakerMatch.class, new IndicatorTemplate(Stage.PAIR, Feature.SpeakerMatch.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				Sentence.Token candidate = cand.mention.headToken();
+				return candidate.isQuoted() &&
+						onPrix.headToken().isQuoted() &&
+						candidate.speaker().equals(onPrix.headToken().speaker());
+			}
+			protected Feature feature(boolean value){ return new Feature.SpeakerMatch(value); }
+		});
+		TEMPLATES.put(Feature.SpeakerMatchPronoun.class, new IndicatorTemplate(Stage.PAIR, Feature.SpeakerMatchPronoun.class){
+			protected boolean value(Mention onPrix, ClusteredMention cand){
+				Sentence.Token candidate = cand.mention.headToken();
+				return candidate.isQuoted() &&
+						onPrix.headToken().isQuoted() &&
+						candidate.speaker().equals(onPrix.headToken().speaker()) &&
+						Pronoun.isSomePronoun(cand.mention.headWord()) &&
+						Pronoun.isSomePronoun(onPrix.headWord());
+			}
+			protected Feature feature(boolean value){ return new Feature.SpeakerMatchPronoun(value); }
+		});
+		TEMPLATES.put(Feature.GrammaticalRole.class, new StringTemplate(Stage.CANDIDATE, Feature.GrammaticalRole.class){
+			protected String value(Mention onPrix, ClusteredMention cand){
+				Mention candidate = cand.mention;
+				Constituent<String> constit = candidate.sentence.constituentAt(candidate.beginIndexInclusive, candidate.endIndexExclusive);
+				return constit == null ? "NONE" : constit.getLabel();
+			}
+			protected Feature feature(String value){ return new Feature.GrammaticalRole(value); }
+		});
+	}
+
+	/**
+	 * Resolve each active feature (a feature class, or a Pair of them) to its template
+	 * @param features The active features
+	 * @param stage Only templates of this stage are returned, or all if null
+	 * @return The templates, in the order the active features are iterated
+	 */
+	@SuppressWarnings({"unchecked"})
+	private static Template[] compile(Set<Object> features, Stage stage){
+		List<Template> compiled = new ArrayList<Template>();
+		for(Object o : features){
+			if(o instanceof Class){
+				//(case: singleton feature)
+				Template template = template((Class) o);
+				if(stage == null || template.stage == stage){ compiled.add(template); }
+			} else if(o instanceof Pair){
+				//(case: pair of features)
+				Pair<Class,Class> pair = (Pair<Class,Class>) o;
+				Template template = new Conjunction(template(pair.getFirst()), template(pair.getSecond()));
+				if(stage == null || template.stage == stage){ compiled.add(template); }
+			} else {
+				throw new IllegalArgumentException("Not a feature or pair of features: " + o);
+			}
+		}
+		return compiled.toArray(new Template[compiled.size()]);
+	}
+
+	private static Template template(Class<?> clazz){
+		Template template = TEMPLATES.get(clazz);
+		if(template == null){ throw new IllegalArgumentException("Unregistered feature: " + clazz); }
+		return template;
+	}
+
+	private static final Template[] ACTIVE_TEMPLATES = compile(ACTIVE_FEATURES, null);
+	private static final Template[] ANAPHOR_TEMPLATES = compile(ACTIVE_FEATURES, Stage.ANAPHOR);
+	private static final Template[] CANDIDATE_TEMPLATES = compile(ACTIVE_FEATURES, Stage.CANDIDATE);
+	private static final Template[] PAIR_TEMPLATES = compile(ACTIVE_FEATURES, Stage.PAIR);
+
+	private FeatureIndex featureIndex = new DictionaryFeatureIndex(); //the id of each feature
+	private double[] margins = new double[0]; //by feature id, the weight for true minus the weight for false
 
 	public ClassifierBased(){
 		StanfordRedwoodConfiguration.setup();
@@ -70,135 +425,13 @@ public class ClassifierBased implements CoreferenceSystem {
 	}
 
 	public FeatureExtractor<Pair<Mention,ClusteredMention>,Feature,Boolean> extractor = new FeatureExtractor<Pair<Mention, ClusteredMention>, Feature, Boolean>() {
-		private <E> Feature feature(Class<E> clazz, Pair<Mention,ClusteredMention> input, Option<Double> count){
-			
-			//--Variables
-			Mention onPrix = input.getFirst(); //the first mention (referred to as m_i in the handout)
-			Mention candidate = input.getSecond().mention; //the second mention (referred to as m_j in the handout)
-			Entity candidateCluster = input.getSecond().entity; //the cluster containing the second mention
-
-
-			//--Features
-			if(clazz.equals(Feature.ExactMatch.class)){
-				//(exact string match)
-				return new Feature.ExactMatch(onPrix.gloss().equals(candidate.gloss()));
-			} else if(clazz.equals(Feature.MentionDistIndicator.class)) {
-                Document document = onPrix.doc;
-                return new Feature.MentionDistIndicator(document.indexOfMention(onPrix) - document.indexOfMention(candidate));
-			}
-            else if (clazz.equals(Feature.CandidatePronounIndicator.class)) {
-                return new Feature.CandidatePronounIndicator(Pronoun.isSomePronoun(candidate.headWord()));
-            }
-            else if(clazz.equals(Feature.FixedPronounIndicator.class)) {
-                return new Feature.FixedPronounIndicator(Pronoun.isSomePronoun(onPrix.headWord()));
-            }
-            else if(clazz.equals(Feature.PronounPair.class)) {
-                return new Feature.PronounPair(
-                        new Feature.CandidatePronounIndicator(Pronoun.isSomePronoun(candidate.headWord())),
-                        new Feature.FixedPronounIndicator(Pronoun.isSomePronoun(onPrix.headWord())));
-            }
-            else if(clazz.equals(Feature.CandidateNER.class)) {
-               return new Feature.CandidateNER(candidate.headToken().nerTag());
-            }
-            else if(clazz.equals(Feature.FixedNER.class)) {
-                return new Feature.FixedNER(onPrix.headToken().nerTag());
-            }
-            else if(clazz.equals(Feature.NERPair.class)) {
-                return new Feature.NERPair(
-                        new Feature.CandidateNER(candidate.headToken().nerTag()),
-                        new Feature.FixedNER(onPrix.headToken().nerTag()));
-            }
-            else if(clazz.equals(Feature.HeadWordEditDistance.class)) {
-                return new Feature.HeadWordEditDistance(
-                        LevenshteinDistance.computeLevenshteinDistance(candidate.headWord(), onPrix.headWord()));
-            }
-            else if(clazz.equals(Feature.MentionEditDistance.class)) {
-                return new Feature.MentionEditDistance(
-                        LevenshteinDistance.computeLevenshteinDistance(candidate.gloss(), onPrix.gloss()));
-            }
-            else if(clazz.equals(Feature.GenderCompatible.class)) {
-                Gender onPrixGender = getGender(onPrix.headToken());
-                Gender candidateGender = getGender(candidate.headToken());
-                return new Feature.GenderCompatible(onPrixGender == candidateGender ||
-                        (onPrixGender.isAnimate() && candidateGender == Gender.EITHER) ||
-                        (candidateGender.isAnimate() && onPrixGender == Gender.EITHER));
-            }
-            else if(clazz.equals(Feature.GenderExactMatch.class)) {
-                return new Feature.GenderExactMatch(
-                        getGender(onPrix.headToken()) == getGender(candidate.headToken()));
-            }
-            else if(clazz.equals(Feature.NumberCompatible.class)) {
-                return new Feature.NumberCompatible(onPrix.headToken().isPluralNoun() == candidate.headToken().isPluralNoun() ||
-                        !onPrix.headToken().isNoun() || !candidate.headToken().isNoun());
-            }
-            else if(clazz.equals(Feature.NumberExactMatch.class)) {
-                return new Feature.NumberExactMatch(onPrix.headToken().isNoun() && candidate.headToken().isNoun() &&
-                        onPrix.headToken().isPluralNoun() == onPrix.headToken().isPluralNoun());
-            }
-            else if(clazz.equals(Feature.NERMatch.class)) {
-                return new Feature.NERMatch(onPrix.headToken().nerTag().equals(candidate.headToken().nerTag()));
-            }
-            else if(clazz.equals(Feature.CandidatePOS.class)) {
-                return new Feature.CandidatePOS(candidate.headToken().posTag());
-            }
-            else if(clazz.equals(Feature.FixedPOS.class)) {
-                return new Feature.FixedPOS(onPrix.headToken().posTag());
-            }
-            else if(clazz.equals(Feature.POSPair.class)) {
-                return new Feature.POSPair(
-                        new Feature.CandidatePOS(candidate.headToken().posTag()),
-                        new Feature.FixedPOS(onPrix.headToken().posTag()));
-            }
-            else if(clazz.equals(Feature.SpeakerMatch.class)) {
-                return new Feature.SpeakerMatch(candidate.headToken().isQuoted() &&
-                        onPrix.headToken().isQuoted() &&
-                        candidate.headToken().speaker().equals(onPrix.headToken().speaker()));
-            }
-            else if(clazz.equals(Feature.SpeakerMatchPronoun.class)) {
-                return new Feature.SpeakerMatchPronoun(candidate.headToken().isQuoted() &&
-                        onPrix.headToken().isQuoted() &&
-                        candidate.headToken().speaker().equals(onPrix.headToken().speaker()) &&
-                        Pronoun.isSomePronoun(candidate.headWord()) &&
-                        Pronoun.isSomePronoun(onPrix.headWord()));
-            }
-            else if(clazz.equals(Feature.GrammaticalRole.class)) {
-                Trees.StandardTreeNormalizer normalizer = new Trees.StandardTreeNormalizer();
-                List<Constituent<String>> constits = normalizer.transformTree(candidate.sentence.parse).toConstituentList();
-                for (Constituent<String> constit : constits) {
-                    if (constit.getStart() == candidate.beginIndexInclusive && constit.getEnd() == candidate.endIndexExclusive) {
-                        System.out.println(constit.getLabel());
-                        return new Feature.GrammaticalRole(constit.getLabel());
-                    }
-                }
-                return new Feature.GrammaticalRole("NONE");
-            }
-			else {
-				throw new IllegalArgumentException("Unregistered feature: " + clazz);
-			}
-		}
-
-		@SuppressWarnings({"unchecked"})
 		@Override
 		protected void fillFeatures(Pair<Mention, ClusteredMention> input, Counter<Feature> inFeatures, Boolean output, Counter<Feature> outFeatures) {
 			//--Input Features
-			for(Object o : ACTIVE_FEATURES){
-				if(o instanceof Class){
-					//(case: singleton feature)
-					Option<Double> count = new Option<Double>(1.0);
-					Feature feat = feature((Class) o, input, count);
-					if(count.get() > 0.0){
-						inFeatures.incrementCount(feat, count.get());
-					}
-				} else if(o instanceof Pair){
-					//(case: pair of features)
-					Pair<Class,Class> pair = (Pair<Class,Class>) o;
-					Option<Double> countA = new Option<Double>(1.0);
-					Option<Double> countB = new Option<Double>(1.0);
-					Feature featA = feature(pair.getFirst(), input, countA);
-					Feature featB = feature(pair.getSecond(), input, countB);
-					if(countA.get() * countB.get() > 0.0){
-						inFeatures.incrementCount(new Feature.PairFeature(featA, featB), countA.get() * countB.get());
-					}
+			for(Template template : ACTIVE_TEMPLATES){
+				Feature feat = template.extract(input.getFirst(), input.getSecond());
+				if(feat != null){
+					inFeatures.incrementCount(feat, 1.0);
 				}
 			}
 
@@ -214,7 +447,63 @@ public class ClassifierBased implements CoreferenceSystem {
 		}
 	};
 
-    private Gender getGender(Sentence.Token token) {
+	/**
+	 * Extract the anaphor-only or candidate-only features of a mention, as feature ids
+	 * @param index The index to intern the features in
+	 * @param templates ANAPHOR_TEMPLATES or CANDIDATE_TEMPLATES
+	 * @param onPrix The mention, for anaphor features; otherwise null
+	 * @param candidate The mention and its cluster, for candidate features; otherwise null
+	 * @param grow If true, new features are added to the index; otherwise they are skipped
+	 * @return The ids of the mention's features
+	 */
+	private static int[] mentionFeatures(FeatureIndex index, Template[] templates, Mention onPrix, ClusteredMention candidate, boolean grow){
+		int[] ids = new int[templates.length];
+		int size = 0;
+		for(Template template : templates){
+			int id = id(index, template, onPrix, candidate, grow);
+			if(id >= 0){ ids[size++] = id; }
+		}
+		return size == ids.length ? ids : Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * The id of a template's feature on a pair, looked up by its key. The feature itself
+	 * is only built if the index must add it, or must resolve it by name.
+	 * @param grow If true, a new feature is added to the index; otherwise it is skipped
+	 * @return The feature's id, or -1 if the pair does not have the feature, or the index does not
+	 */
+	private static int id(FeatureIndex index, Template template, Mention onPrix, ClusteredMention candidate, boolean grow){
+		long key = template.key(onPrix, candidate);
+		if(key == NO_FEATURE){ return -1; }
+		int id = index.indexOf(key);
+		if(id == FeatureIndex.UNKNOWN){ return index.indexOf(key, template.extract(onPrix, candidate)); }
+		if(id < 0 && grow){ id = index.add(key, template.extract(onPrix, candidate)); }
+		return id;
+	}
+
+	/**
+	 * Extract the features of a candidate pair into a sparse vector of feature ids:
+	 * the cached anaphor and candidate features, and then the pair features.
+	 * This is fillFeatures(), without a Counter in between.
+	 * @param index The index to intern the features in
+	 * @param onPrix The mention
+	 * @param candidate The candidate antecedent, and its cluster
+	 * @param anaphorFeatures The anaphor features of onPrix, from mentionFeatures()
+	 * @param candidateFeatures The candidate features of the candidate, from mentionFeatures()
+	 * @param out The vector to add the features to
+	 * @param grow If true, new features are added to the index; otherwise they are skipped
+	 */
+	private static void featurize(FeatureIndex index, Mention onPrix, ClusteredMention candidate,
+	                              int[] anaphorFeatures, int[] candidateFeatures, SparseVector out, boolean grow){
+		for(int id : anaphorFeatures){ out.add(id, 1.0f); }
+		for(int id : candidateFeatures){ out.add(id, 1.0f); }
+		for(Template template : PAIR_TEMPLATES){
+			int id = id(index, template, onPrix, candidate, grow);
+			if(id >= 0){ out.add(id, 1.0f); }
+		}
+	}
+
+    private static Gender getGender(Sentence.Token token) {
        Gender gender;
        if(Name.isName(token.word())) {
            gender = Name.mostLikelyGender(token.word());
@@ -233,63 +522,479 @@ public class ClassifierBased implements CoreferenceSystem {
        return gender;
     }
 
+	/**
+	 * Read the training options: -learner (maxent, perceptron or adagrad),
+	 * -epochs (the passes of an online learner), -hashBits (0 for a dictionary of features),
+	 * -threads (the threads to extract features on), and -blocking and -blockingWindow
+	 */
+	public void configure(Properties props) {
+		//(learner)
+		String learner = props.getProperty("learner", MAXENT);
+		if(!learner.equals(MAXENT) && !learner.equals(PERCEPTRON) && !learner.equals(ADAGRAD)){
+			throw new IllegalArgumentException("unknown learner: " + learner + " (must be maxent, perceptron, or adagrad)");
+		}
+		//(epochs)
+		int epochs = -1;
+		try {
+			epochs = Integer.parseInt(props.getProperty("epochs", "10"));
+		} catch(NumberFormatException e) { }
+		if(epochs <= 0){
+			throw new IllegalArgumentException("not a valid number of epochs: " + props.getProperty("epochs") + " (must be positive)");
+		}
+		//(feature hashing)
+		int hashBits = -1;
+		try {
+			hashBits = Integer.parseInt(props.getProperty("hashBits", "0"));
+		} catch(NumberFormatException e) { }
+		if(hashBits < 0 || hashBits > HashedFeatureIndex.MAX_BITS){
+			throw new IllegalArgumentException("not a valid number of hash bits: " + props.getProperty("hashBits")
+					+ " (must be 0 for no hashing, or between 1 and " + HashedFeatureIndex.MAX_BITS + ")");
+		}
+		//(threads)
+		int numThreads = -1;
+		try {
+			numThreads = Integer.parseInt(props.getProperty("threads", "1"));
+		} catch(NumberFormatException e) { }
+		if(numThreads <= 0){
+			throw new IllegalArgumentException("not a valid number of threads: " + props.getProperty("threads") + " (must be positive)");
+		}
+		this.learner = learner;
+		this.epochs = epochs;
+		this.hashBits = hashBits;
+		this.numThreads = numThreads;
+		this.blocking = BlockingIndex.Settings.read(props);
+	}
+
 	public void train(Collection<Pair<Document, List<Entity>>> trainingData) {
 		startTrack("Training");
+		FeatureIndex index = hashBits > 0 ? new HashedFeatureIndex(hashBits) : new DictionaryFeatureIndex();
+		this.featureIndex = index;
+		if(learner.equals(MAXENT)){
+			this.margins = trainMaxent(trainingData, index);
+		} else {
+			this.margins = trainOnline(trainingData, index);
+		}
+		if(index instanceof HashedFeatureIndex){ log(FORCE, "Feature hashing: " + index); }
+		endTrack("Training");
+	}
+
+	/**
+	 * Train the maximum entropy classifier, on every training datum at once
+	 * @return The margins of the classifier, by feature id
+	 */
+	private double[] trainMaxent(Collection<Pair<Document, List<Entity>>> trainingData, FeatureIndex index){
 		//--Variables
-		RVFDataset<Boolean, Feature> dataset = new RVFDataset<Boolean, Feature>();
-		LinearClassifierFactory<Boolean, Feature> fact = new LinearClassifierFactory<Boolean,Feature>();
+		//(the datums, as the arrays the dataset is built from, so no datum is held as a Counter)
+		final List<int[]> data = new ArrayList<int[]>();
+		final List<double[]> values = new ArrayList<double[]>();
+		final BitSet coreferent = new BitSet();
+		LinearClassifierFactory<Boolean, Integer> fact = new LinearClassifierFactory<Boolean,Integer>();
 		//--Feature Extraction
 		startTrack("Feature Extraction");
-		for(Pair<Document,List<Entity>> datum : trainingData){
-			//(document variables)
-			Document doc = datum.getFirst();
-			List<Entity> goldClusters = datum.getSecond();
-			List<Mention> mentions = doc.getMentions();
-			Map<Mention,Entity> goldEntities = Entity.mentionToEntityMap(goldClusters);
-			startTrack("Document " + doc.id);
-			//(for each mention...)
-			for(int i=0; i<mentions.size(); i++){
-				//(get the mention and its cluster)
-				Mention onPrix = mentions.get(i);
-				Entity source = goldEntities.get(onPrix);
-				if(source == null){ throw new IllegalArgumentException("Mention has no gold entity: " + onPrix); }
-				//(for each previous mention...)
-				int oldSize = dataset.size();
-				for(int j=i-1; j>=0; j--){
-					//(get previous mention and its cluster)
-					Mention cand = mentions.get(j);
-					Entity target = goldEntities.get(cand);
-					if(target == null){ throw new IllegalArgumentException("Mention has no gold entity: " + cand); }
-					//(extract features)
-					Counter<Feature> feats = extractor.extractFeatures(Pair.make(onPrix, cand.markCoreferent(target)));
-					//(add datum)
-					dataset.add(new RVFDatum<Boolean, Feature>(feats, target == source));
-					//(stop if
-					if(target == source){ break; }
+		Profiler.Timer featureTimer = Profiler.start("train.features");
+		extractAll(trainingData, index, featureTimer, new DocumentHandler(){
+			public void handle(Extracted document){
+				for(int i=0; i<document.features.size(); i++){
+					SparseVector feats = document.features.get(i);
+					int[] ids = new int[feats.size()];
+					double[] counts = new double[feats.size()];
+					for(int k=0; k<feats.size(); k++){
+						ids[k] = feats.index(k);
+						counts[k] = feats.value(k);
+					}
+					if(document.labels.get(i)){ coreferent.set(data.size()); }
+					data.add(ids);
+					values.add(counts);
 				}
-				//logf("Mention %s (%d datums)", onPrix.toString(), dataset.size() - oldSize);
 			}
-			endTrack("Document " + doc.id);
-		}
+		});
+		featureTimer.stop(trainingData.size());
 		endTrack("Feature Extraction");
+		//--Build Dataset
+		//(only the ids some datum has are indexed, in order; a hashed index has many more)
+		BitSet seen = new BitSet();
+		for(int[] ids : data){
+			for(int f : ids){ seen.set(f); }
+		}
+		int[] seenIds = new int[seen.cardinality()];
+		for(int f=seen.nextSetBit(0), k=0; f>=0; f=seen.nextSetBit(f + 1), k++){ seenIds[k] = f; }
+		Index<Integer> featureIds = new HashIndex<Integer>();
+		for(int f : seenIds){ featureIds.add(f); }
+		for(int[] ids : data){
+			for(int k=0; k<ids.length; k++){ ids[k] = Arrays.binarySearch(seenIds, ids[k]); }
+		}
+		//(false is label 0)
+		Index<Boolean> labelIndex = new HashIndex<Boolean>();
+		labelIndex.add(false);
+		labelIndex.add(true);
+		int[] labelIds = new int[data.size()];
+		for(int i=0; i<labelIds.length; i++){ labelIds[i] = coreferent.get(i) ? 1 : 0; }
+		RVFDataset<Boolean, Integer> dataset = new RVFDataset<Boolean, Integer>(labelIndex, labelIds, featureIds,
+				data.toArray(new int[data.size()][]), values.toArray(new double[values.size()][]));
+		data.clear();
+		values.clear();
 		//--Train Classifier
 		startTrack("Minimizer");
-		this.classifier = fact.trainClassifier(dataset);
+		Profiler.Timer minimizerTimer = Profiler.start("train.minimizer");
+		LinearClassifier<Boolean,Integer> classifier = fact.trainClassifier(dataset);
+		minimizerTimer.stop(dataset.size());
 		endTrack("Minimizer");
+		//--Export Weights
+		//(true wins if its score is higher than false's)
+		double[] margins = new double[index.size()];
+		for(Integer f : classifier.features()){
+			margins[f] = classifier.weight(f, true) - classifier.weight(f, false);
+		}
 		//--Dump Weights
 		startTrack("Features");
 		//(get labels to print)
 		Set<Boolean> labels = new HashSet<Boolean>();
 		labels.add(true);
 		//(print features)
-		for(Triple<Feature,Boolean,Double> featureInfo : this.classifier.getTopFeatures(labels, 0.0, true, 100, true)){
-			Feature feature = featureInfo.first();
+		for(Triple<Integer,Boolean,Double> featureInfo : classifier.getTopFeatures(labels, 0.0, true, 100, true)){
+			String feature = index.name(featureInfo.first());
 			Boolean label = featureInfo.second();
 			Double magnitude = featureInfo.third();
 			log(FORCE,new DecimalFormat("0.000").format(magnitude) + " [" + label + "] " + feature);
 		}
 		end_Track("Features");
-		endTrack("Training");
+		return margins;
+	}
+
+	/**
+	 * Train an online learner, in passes over the training documents.
+	 * Only the datums of the documents being extracted are held in memory, so memory
+	 * does not grow with the number of training documents (beyond the weights).
+	 * @return The margins of the learner, by feature id
+	 */
+	private double[] trainOnline(Collection<Pair<Document, List<Entity>>> trainingData, final FeatureIndex index){
+		final OnlineLearner model = learner.equals(PERCEPTRON)
+				? new OnlineLearner.AveragedPerceptron()
+				: new OnlineLearner.AdaGradLogistic(LEARNING_RATE);
+		//--Passes
+		for(int epoch=1; epoch<=epochs; epoch++){
+			startTrack("Epoch " + epoch);
+			Profiler.Timer timer = Profiler.start("train.epoch");
+			final int[] counts = new int[2]; //(datums, mistakes)
+			extractAll(trainingData, index, timer, new DocumentHandler(){
+				public void handle(Extracted document){
+					model.grow(index.size());
+					for(int i=0; i<document.features.size(); i++){
+						if(model.update(document.features.get(i), document.labels.get(i))){ counts[1] += 1; }
+						counts[0] += 1;
+					}
+				}
+			});
+			timer.stop(counts[0]);
+			log(FORCE, counts[1] + " of " + counts[0] + " datums misclassified before their update");
+			endTrack("Epoch " + epoch);
+		}
+		double[] margins = model.margins(index.size());
+		//--Dump Weights
+		startTrack("Features");
+		for(int f : largest(margins, 100)){
+			log(FORCE,new DecimalFormat("0.000").format(Math.abs(margins[f])) + " [" + (margins[f] > 0.0) + "] " + index.name(f));
+		}
+		end_Track("Features");
+		return margins;
+	}
+
+	/**
+	 * The features with the largest nonzero weights (in magnitude), by a bounded min-heap
+	 * @param margins The weight of each feature, by id
+	 * @param n The most features to return
+	 * @return The ids of the features, largest weight first (and lowest id first among equal weights)
+	 */
+	private static int[] largest(double[] margins, int n){
+		//(heap[0] is the smallest kept: the lowest weight, or the highest id among equal weights)
+		int[] heap = new int[n];
+		int size = 0;
+		for(int f=0; f<margins.length; f++){
+			if(margins[f] == 0.0){ continue; }
+			if(size < n){
+				//(sift up)
+				int i = size++;
+				while(i > 0 && smaller(margins, f, heap[(i - 1) / 2])){
+					heap[i] = heap[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				heap[i] = f;
+			} else if(smaller(margins, heap[0], f)){
+				siftDown(margins, heap, size, f);
+			}
+		}
+		//(pop the smallest to the back, so the largest ends up first)
+		for(int end=size-1; end>0; end--){
+			int smallest = heap[0];
+			siftDown(margins, heap, end, heap[end]);
+			heap[end] = smallest;
+		}
+		return Arrays.copyOf(heap, size);
+	}
+
+	/**
+	 * Put a feature at the root of a min-heap, in place of the root, and sift it down
+	 */
+	private static void siftDown(double[] margins, int[] heap, int size, int f){
+		int i = 0;
+		while(2 * i + 1 < size){
+			int child = 2 * i + 1;
+			if(child + 1 < size && smaller(margins, heap[child + 1], heap[child])){ child += 1; }
+			if(!smaller(margins, heap[child], f)){ break; }
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = f;
+	}
+
+	/**
+	 * Whether feature a ranks below feature b: a smaller weight, or an equal weight and a higher id
+	 */
+	private static boolean smaller(double[] margins, int a, int b){
+		int cmp = Double.compare(Math.abs(margins[a]), Math.abs(margins[b]));
+		return cmp < 0 || (cmp == 0 && a > b);
+	}
+
+	/**
+	 * Receives the training datums of each document, in document order
+	 */
+	private static interface DocumentHandler {
+		public void handle(Extracted document);
+	}
+
+	/**
+	 * Extract the training datums of every document, on -threads workers
+	 * @param trainingData The documents
+	 * @param index The index to intern features in; the handler sees feature ids from it
+	 * @param timer The timer of the calling phase, which is charged for the workers' CPU time and allocation
+	 * @param handler Receives each document's datums, in document order, on this thread
+	 */
+	private void extractAll(Collection<Pair<Document, List<Entity>>> trainingData, FeatureIndex index,
+	                        final Profiler.Timer timer, DocumentHandler handler){
+		if(numThreads <= 1){
+			//(case: single threaded)
+			for(Pair<Document,List<Entity>> datum : trainingData){
+				Extracted document = extract(datum);
+				document.intern(index);
+				handler.handle(document);
+			}
+		} else {
+			//(case: multithreaded)
+			//   (each document is extracted into its own index, and merged into the shared one
+			//    in document order, so features get the same ids as when single threaded)
+			ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+			try {
+				Queue<Future<Extracted>> window = new ArrayDeque<Future<Extracted>>();
+				for(final Pair<Document,List<Entity>> datum : trainingData){
+					window.add(pool.submit(new Callable<Extracted>(){
+						public Extracted call(){
+							Profiler.Timer work = timer.worker();
+							try {
+								return extract(datum);
+							} finally {
+								work.stop();
+							}
+						}
+					}));
+					if(window.size() > 2 * numThreads){ merge(window.remove(), index, handler); }
+				}
+				while(!window.isEmpty()){ merge(window.remove(), index, handler); }
+			} finally {
+				pool.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * The training datums of one document, with features in the document's own index
+	 */
+	private static class Extracted {
+		private final DictionaryFeatureIndex index = new DictionaryFeatureIndex();
+		private final List<SparseVector> features = new ArrayList<SparseVector>();
+		private final List<Boolean> labels = new ArrayList<Boolean>();
+
+		/**
+		 * Intern the features in a shared index, and replace their ids with the shared ones
+		 */
+		private void intern(FeatureIndex shared){
+			//(features are added in the order the document first saw them)
+			int[] ids = new int[index.size()];
+			for(int f=0; f<ids.length; f++){ ids[f] = shared.add(index.key(f), index.feature(f)); }
+			for(SparseVector feats : features){ feats.remap(ids); }
+		}
+	}
+
+	/**
+	 * Extract the training datums of a document: each mention, paired with each previous mention
+	 * back to (and including) the closest one in its gold cluster
+	 * @param datum The document, and its gold clusters
+	 * @return The datums, with features in their own index
+	 */
+	private Extracted extract(Pair<Document,List<Entity>> datum){
+		//(document variables)
+		Document doc = datum.getFirst();
+		List<Entity> goldClusters = datum.getSecond();
+		List<Mention> mentions = doc.getMentions();
+		Map<Mention,Entity> goldEntities = Entity.mentionToEntityMap(goldClusters);
+		Extracted extracted = new Extracted();
+		DictionaryFeatureIndex index = extracted.index;
+		int[][] candidateFeatures = new int[mentions.size()][]; //(filled the first time a mention is a candidate)
+		SparseVector feats = new SparseVector();
+		BlockingIndex blocking = this.blocking.index(doc);
+		//(for each mention...)
+		for(int i=0; i<mentions.size(); i++){
+			//(get the mention and its cluster)
+			Mention onPrix = mentions.get(i);
+			Entity source = goldEntities.get(onPrix);
+			if(source == null){ throw new IllegalArgumentException("Mention has no gold entity: " + onPrix); }
+			//(for each previous mention...)
+			int[] anaphorFeatures = i > 0 ? mentionFeatures(index, ANAPHOR_TEMPLATES, onPrix, null, true) : null;
+			BitSet allowed = blocking != null ? blocking.candidates(i) : null;
+			for(int j=i-1; j>=0; j--){
+				//(skip blocked candidates, as at test time)
+				if(allowed != null && !allowed.get(j)){ continue; }
+				//(get previous mention and its cluster)
+				Mention cand = mentions.get(j);
+				Entity target = goldEntities.get(cand);
+				if(target == null){ throw new IllegalArgumentException("Mention has no gold entity: " + cand); }
+				//(extract features)
+				ClusteredMention clustered = cand.markCoreferent(target);
+				if(candidateFeatures[j] == null){ candidateFeatures[j] = mentionFeatures(index, CANDIDATE_TEMPLATES, null, clustered, true); }
+				feats.clear();
+				featurize(index, onPrix, clustered, anaphorFeatures, candidateFeatures[j], feats, true);
+				//(add datum)
+				extracted.features.add(feats.copy());
+				extracted.labels.add(target == source);
+				//(stop if
+				if(target == source){ break; }
+			}
+		}
+		return extracted;
+	}
+
+	/**
+	 * Wait for a document's datums, and pass them to the handler
+	 */
+	private static void merge(Future<Extracted> extracted, FeatureIndex index, DocumentHandler handler){
+		try {
+			Extracted document = extracted.get();
+			document.intern(index);
+			handler.handle(document);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){ throw (RuntimeException) e.getCause(); }
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * The score of an anaphor-only or candidate-only feature set.
+	 * Features unseen in training (ids outside of the margins) count as zero.
+	 */
+	private static double score(int[] ids, double[] margins){
+		double sum = 0.0;
+		for(int id : ids){
+			if(id < margins.length){ sum += margins[id]; }
+		}
+		return sum;
+	}
+
+	/**
+	 * Find the closest coreferent candidate antecedent of a mention; a pair is coreferent
+	 * if its score is positive. Candidates are scored closest first, and scoring stops at
+	 * the first coreferent one, since most antecedents are close. The anaphor's and the candidates' own
+	 * features are scored once, so only the pair features are looked up here.
+	 * A pair whose score is exactly 0 is not coreferent. (LinearClassifier.classOf() breaks
+	 * such ties by label order instead, so the two can disagree on a pair none of whose
+	 * features has a weight.)
+	 * @param index The feature index
+	 * @param margins The weights, by feature id
+	 * @param onPrix The mention
+	 * @param anaphorScore The score of the mention's anaphor features
+	 * @param candidates The mentions before onPrix, and their clusters
+	 * @param candidateScores The score of each candidate's candidate features
+	 * @param allowed The candidates not blocked, or null if none are; blocked candidates are skipped
+	 * @param from The farthest candidate to score
+	 * @param to The end of the candidates (exclusive), the index of onPrix
+	 * @return The index of the closest coreferent candidate, or -1 if there is none
+	 */
+	private static int closestCoreferent(FeatureIndex index, double[] margins, Mention onPrix, double anaphorScore,
+	                              List<ClusteredMention> candidates, double[] candidateScores, BitSet allowed,
+	                              int from, int to){
+		for(int j=to-1; j>=from; j--){
+			if(allowed != null && !allowed.get(j)){ continue; }
+			ClusteredMention cand = candidates.get(j);
+			double sum = anaphorScore + candidateScores[j];
+			for(Template template : PAIR_TEMPLATES){
+				int id = id(index, template, onPrix, cand, false);
+				if(id >= 0 && id < margins.length){ sum += margins[id]; }
+			}
+			if(sum > 0.0){ return j; }
+		}
+		return -1;
+	}
+
+	/**
+	 * Save the classifier as the difference between each feature's weight
+	 * for true and its weight for false, keyed by the feature's toString().
+	 * A hashed model is written as an empty map, followed by its hash bits and
+	 * its nonzero weights by id.
+	 */
+	public void saveModel(DataOutput out) throws IOException {
+		if(featureIndex.size() == 0){ throw new IllegalStateException("No model to save: train or load one first"); }
+		if(featureIndex instanceof HashedFeatureIndex){
+			IOUtils.writeVarInt(out, 0);
+			IOUtils.writeVarInt(out, ((HashedFeatureIndex) featureIndex).bits());
+			int nonzero = 0;
+			for(double margin : margins){ if(margin != 0.0){ nonzero += 1; } }
+			IOUtils.writeVarInt(out, nonzero);
+			for(int f=0; f<margins.length; f++){
+				if(margins[f] != 0.0){
+					IOUtils.writeVarInt(out, f);
+					out.writeDouble(margins[f]);
+				}
+			}
+			return;
+		}
+		Map<String,Double> sorted = new TreeMap<String,Double>();
+		for(int f=0; f<featureIndex.size(); f++){
+			String name = featureIndex.name(f);
+			if(sorted.containsKey(name)){ throw new IllegalStateException("Two features print as " + name); }
+			sorted.put(name, f < margins.length ? margins[f] : 0.0);
+		}
+		IOUtils.writeVarInt(out, sorted.size());
+		for(Map.Entry<String,Double> entry : sorted.entrySet()){
+			IOUtils.writeString(out, entry.getKey());
+			out.writeDouble(entry.getValue());
+		}
+	}
+
+	public void loadModel(DataInput in) throws IOException {
+		int size = IOUtils.readVarInt(in);
+		if(size == 0){
+			//(case: a hashed model)
+			HashedFeatureIndex index = new HashedFeatureIndex(IOUtils.readVarInt(in));
+			double[] margins = new double[index.size()];
+			int nonzero = IOUtils.readVarInt(in);
+			for(int i=0; i<nonzero; i++){
+				int f = IOUtils.readVarInt(in);
+				if(f < 0 || f >= margins.length){ throw new IOException("Weight out of range: " + f); }
+				margins[f] = in.readDouble();
+			}
+			this.featureIndex = index;
+			this.margins = margins;
+			return;
+		}
+		List<String> names = new ArrayList<String>(size);
+		double[] margins = new double[size];
+		for(int i=0; i<size; i++){
+			names.add(IOUtils.readString(in));
+			margins[i] = in.readDouble();
+		}
+		this.featureIndex = new DictionaryFeatureIndex(names);
+		this.margins = margins;
 	}
 
 	public List<ClusteredMention> runCoreference(Document doc) {
@@ -298,21 +1003,20 @@ public class ClassifierBased implements CoreferenceSystem {
 		//(variables)
 		List<ClusteredMention> rtn = new ArrayList<ClusteredMention>(doc.getMentions().size());
 		List<Mention> mentions = doc.getMentions();
+		FeatureIndex index = featureIndex;
+		double[] margins = this.margins;
+		double[] candidateScores = new double[mentions.size()]; //(the score of each mention's candidate features)
+		BlockingIndex blocking = this.blocking.index(doc);
 		int singletons = 0;
 		//--Run Classifier
 		for(int i=0; i<mentions.size(); i++){
 			//(variables)
 			Mention onPrix = mentions.get(i);
-			int coreferentWith = -1;
+			double anaphorScore = i > 0 ? score(mentionFeatures(index, ANAPHOR_TEMPLATES, onPrix, null, false), margins) : 0.0;
 			//(get mention it is coreferent with)
-			for(int j=i-1; j>=0; j--){
-				ClusteredMention cand = rtn.get(j);
-				boolean coreferent = classifier.classOf(new RVFDatum<Boolean, Feature>(extractor.extractFeatures(Pair.make(onPrix, cand))));
-				if(coreferent){
-					coreferentWith = j;
-					break;
-				}
-			}
+			BitSet allowed = blocking != null ? blocking.candidates(i) : null;
+			int lowest = allowed == null ? 0 : (allowed.isEmpty() ? i : allowed.nextSetBit(0));
+			int coreferentWith = closestCoreferent(index, margins, onPrix, anaphorScore, rtn, candidateScores, allowed, lowest, i);
 			//(mark coreference)
 			if(coreferentWith < 0){
 				singletons += 1;
@@ -321,43 +1025,11 @@ public class ClassifierBased implements CoreferenceSystem {
 				//log("Mention " + onPrix + " coreferent with " + mentions.get(coreferentWith));
 				rtn.add(onPrix.markCoreferent(rtn.get(coreferentWith)));
 			}
+			candidateScores[i] = score(mentionFeatures(index, CANDIDATE_TEMPLATES, null, rtn.get(i), false), margins);
 		}
 		//log("" + singletons + " singletons");
 		//--Return
 		endTrack("Testing " + doc.id);
 		return rtn;
 	}
-
-	private class Option<T> {
-		private T obj;
-		public Option(T obj){ this.obj = obj; }
-		public Option(){};
-		public T get(){ return obj; }
-		public void set(T obj){ this.obj = obj; }
-		public boolean exists(){ return obj != null; }
-	}
-
-    public static class LevenshteinDistance {
-        private static int minimum(int a, int b, int c) {
-            return Math.min(Math.min(a, b), c);
-        }
-
-        public static int computeLevenshteinDistance(String str1,String str2) {
-            int[][] distance = new int[str1.length() + 1][str2.length() + 1];
-
-            for (int i = 0; i <= str1.length(); i++)
-                distance[i][0] = i;
-            for (int j = 1; j <= str2.length(); j++)
-                distance[0][j] = j;
-
-            for (int i = 1; i <= str1.length(); i++)
-                for (int j = 1; j <= str2.length(); j++)
-                    distance[i][j] = minimum(
-                            distance[i - 1][j] + 1,
-                            distance[i][j - 1] + 1,
-                            distance[i - 1][j - 1] + ((str1.charAt(i - 1) == str2.charAt(j - 1)) ? 0 : 1));
-
-            return distance[str1.length()][str2.length()];
-        }
-    }
 }
@@ -0,0 +1,17 @@
+package cs224n.corefsystems;
+
+import java.util.Properties;
+
+/**
+ * A coreference system with options of its own, which it reads from the
+ * options of the program running it (e.g. the tester's command line).
+ */
+public interface Configurable {
+
+  /**
+   * Read this system's options; called once, before the system is trained or loaded.
+   * @param props The options of the program, of which the system reads only its own
+   * @throws IllegalArgumentException If one of the system's options is not valid
+   */
+  public void configure(Properties props);
+}
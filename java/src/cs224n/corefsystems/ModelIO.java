@@ -0,0 +1,106 @@
+package cs224n.corefsystems;
+
+import cs224n.util.IOUtils;
+import cs224n.util.Indexer;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Saves and loads the models of {@link PersistentModel} systems.
+ *
+ * A model file is a header (magic number, format version, and the class of the
+ * system which wrote it), followed by whatever the system writes in saveModel().
+ */
+public class ModelIO {
+  public static final int MODEL_MAGIC = 0x434f524d;
+  public static final int MODEL_VERSION = 1;
+
+  private ModelIO(){}
+
+  /**
+   * Save a trained system to a file
+   * @param system The system to save
+   * @param file The file to write
+   */
+  public static void save(PersistentModel system, File file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    try {
+      out.writeInt(MODEL_MAGIC);
+      out.writeInt(MODEL_VERSION);
+      IOUtils.writeString(out, system.getClass().getName());
+      system.saveModel(out);
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Load a saved model into a system, in place of training it
+   * @param system The system to load into; it must be of the class which saved the model
+   * @param file The file to read
+   */
+  public static void load(PersistentModel system, File file) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      if(in.readInt() != MODEL_MAGIC){ throw new IOException("Not a saved model: " + file); }
+      int version = in.readInt();
+      if(version != MODEL_VERSION){ throw new IOException("Unsupported model version " + version + " (expected " + MODEL_VERSION + "): " + file); }
+      String className = IOUtils.readString(in);
+      if(!className.equals(system.getClass().getName())){
+        throw new IOException("Model was saved by " + className + ", not " + system.getClass().getName() + ": " + file);
+      }
+      system.loadModel(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Write a map from strings to sets of strings (e.g., coreferent head words),
+   * as a table of the distinct strings followed by the map over their indices.
+   * The iteration order of the map and of each set is kept.
+   * @param out The output to write to
+   * @param map The map to write
+   */
+  public static void writeStringSets(DataOutput out, Map<String,? extends Set<String>> map) throws IOException {
+    //(string table)
+    Indexer<String> strings = new Indexer<String>();
+    for(Map.Entry<String,? extends Set<String>> entry : map.entrySet()){
+      strings.add(entry.getKey());
+      for(String value : entry.getValue()){ strings.add(value); }
+    }
+    IOUtils.writeVarInt(out, strings.size());
+    for(int i=0; i<strings.size(); i++){ IOUtils.writeString(out, strings.get(i)); }
+    //(map)
+    IOUtils.writeVarInt(out, map.size());
+    for(Map.Entry<String,? extends Set<String>> entry : map.entrySet()){
+      IOUtils.writeVarInt(out, strings.indexOf(entry.getKey()));
+      IOUtils.writeVarInt(out, entry.getValue().size());
+      for(String value : entry.getValue()){ IOUtils.writeVarInt(out, strings.indexOf(value)); }
+    }
+  }
+
+  /**
+   * Read a map written by writeStringSets()
+   * @param in The input to read from
+   * @return The map, with its entries and sets in the order they were written (a LinkedHashMap of LinkedHashSets)
+   */
+  public static HashMap<String,HashSet<String>> readStringSets(DataInput in) throws IOException {
+    //(string table)
+    int numStrings = IOUtils.readVarInt(in);
+    String[] strings = new String[numStrings];
+    for(int i=0; i<numStrings; i++){ strings[i] = IOUtils.readString(in); }
+    //(map)
+    int size = IOUtils.readVarInt(in);
+    HashMap<String,HashSet<String>> map = new LinkedHashMap<String,HashSet<String>>();
+    for(int i=0; i<size; i++){
+      String key = strings[IOUtils.readVarInt(in)];
+      int setSize = IOUtils.readVarInt(in);
+      HashSet<String> set = new LinkedHashSet<String>();
+      for(int k=0; k<setSize; k++){ set.add(strings[IOUtils.readVarInt(in)]); }
+      map.put(key, set);
+    }
+    return map;
+  }
+}
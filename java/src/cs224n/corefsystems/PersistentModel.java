@@ -0,0 +1,25 @@
+package cs224n.corefsystems;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A coreference system whose trained state can be saved, and loaded back
+ * in place of training. See {@link ModelIO} for the file format around it.
+ */
+public interface PersistentModel {
+
+  /**
+   * Write the trained state of this system.
+   * @param out The output to write to
+   */
+  public void saveModel(DataOutput out) throws IOException;
+
+  /**
+   * Replace the state of this system with a saved one; after this,
+   * the system is ready to run coreference without being trained.
+   * @param in The input to read from, as written by saveModel()
+   */
+  public void loadModel(DataInput in) throws IOException;
+}
@@ -1,13 +1,19 @@
 package cs224n.corefsystems;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Properties;
 import java.util.Queue;
 
+import cs224n.coref.BlockingIndex;
 import cs224n.coref.ClusteredMention;
 import cs224n.coref.Country;
 import cs224n.coref.Document;
@@ -19,9 +25,16 @@ import cs224n.coref.Sentence;
 import cs224n.ling.Tree;
 import cs224n.util.Pair;
 
-public class RuleBased implements CoreferenceSystem {
+public class RuleBased implements CoreferenceSystem, PersistentModel, Configurable {
 
 	HashMap<String, HashSet<String>> coreferentHeads = new HashMap<String, HashSet<String>>();
+	// Whether to search only the candidates of a blocking index (set by -blocking and -blockingWindow).
+	BlockingIndex.Settings blockingSettings = BlockingIndex.Settings.OFF;
+
+	@Override
+	public void configure(Properties props) {
+		blockingSettings = BlockingIndex.Settings.read(props);
+	}
 
 	@Override
 	public void train(Collection<Pair<Document, List<Entity>>> trainingData) {
@@ -56,21 +69,41 @@ public class RuleBased implements CoreferenceSystem {
 	}
 
 	int numToSee = 5;
-	Mention currMention = null;
-	Document currDoc = null;
-	HashMap<Pair<Sentence, Pair<Integer, Integer>>, Pair<ClusteredMention, Boolean>> treeToEntityMap = 
-			new HashMap<Pair<Sentence, Pair<Integer, Integer>>, Pair<ClusteredMention, Boolean>>();
+	// Per-document state, kept per thread so documents can be run concurrently.
+	ThreadLocal<Mention> currMention = new ThreadLocal<Mention>();
+	ThreadLocal<HashMap<Pair<Sentence, Pair<Integer, Integer>>, Pair<ClusteredMention, Boolean>>> treeToEntityMap =
+			new ThreadLocal<HashMap<Pair<Sentence, Pair<Integer, Integer>>, Pair<ClusteredMention, Boolean>>>();
+	// The blocking index of the document, or null if blocking is off; Hobbs only proposes mentions it allows.
+	ThreadLocal<BlockingIndex> blocking = new ThreadLocal<BlockingIndex>();
+	@Override
+	public void saveModel(DataOutput out) throws IOException {
+		ModelIO.writeStringSets(out, coreferentHeads);
+	}
+
+	@Override
+	public void loadModel(DataInput in) throws IOException {
+		coreferentHeads = ModelIO.readStringSets(in);
+	}
+
 	@Override
 	public List<ClusteredMention> runCoreference(Document doc) {
 		HashMap<String, ClusteredMention> seenHeads = new HashMap<String, ClusteredMention>();
 		ArrayList<ClusteredMention> clusters = new ArrayList<ClusteredMention>();
-		currDoc = doc;
+		HashMap<Pair<Sentence, Pair<Integer, Integer>>, Pair<ClusteredMention, Boolean>> treeToEntityMap =
+				new HashMap<Pair<Sentence, Pair<Integer, Integer>>, Pair<ClusteredMention, Boolean>>();
+		this.treeToEntityMap.set(treeToEntityMap);
+		BlockingIndex blocking = blockingSettings.index(doc);
+		this.blocking.set(blocking);
 		for (Mention m : doc.getMentions()) {
 			String referringHead = m.headWord();
 			boolean foundCoreferent = false;
+			// Only search the candidates not blocked (clusters has one entry per earlier mention).
+			BitSet allowed = blocking != null ? blocking.candidates(clusters.size()) : null;
 
 			// Try exact matching first.
-			for (ClusteredMention seenMentions : clusters) {
+			for (int j = 0; j < clusters.size(); j++) {
+				if (allowed != null && !allowed.get(j)) continue;
+				ClusteredMention seenMentions = clusters.get(j);
 				if(m.gloss().equals(seenMentions.mention.gloss())) {
 					ClusteredMention cm = m.markCoreferent(seenMentions);
 					treeToEntityMap.put(Pair.make(m.sentence,rangeOfMention(m)), Pair.make(cm, true));
@@ -82,7 +115,9 @@ public class RuleBased implements CoreferenceSystem {
 
 			// Next, exact head matching.
 			if (!foundCoreferent) {
-				for (ClusteredMention seenMentions : clusters) {
+				for (int j = 0; j < clusters.size(); j++) {
+					if (allowed != null && !allowed.get(j)) continue;
+					ClusteredMention seenMentions = clusters.get(j);
 					if(m.headWord().equals(seenMentions.mention.headWord())) {
 						ClusteredMention cm = m.markCoreferent(seenMentions);
 						treeToEntityMap.put(Pair.make(m.sentence,rangeOfMention(m)), Pair.make(cm, true));
@@ -98,6 +133,7 @@ public class RuleBased implements CoreferenceSystem {
 				for (String referredHead : coreferentHeads.get(referringHead)) {
 					if (seenHeads.containsKey(referredHead)) {
 						ClusteredMention oldCm = seenHeads.get(referredHead);
+						if (allowed != null && !allowed.get(doc.indexOfMention(oldCm.mention))) continue;
 						ClusteredMention newCm = m.markCoreferent(oldCm);
 						clusters.add(newCm);
 						treeToEntityMap.put(Pair.make(m.sentence, rangeOfMention(m)), Pair.make(newCm, true));
@@ -119,7 +155,7 @@ public class RuleBased implements CoreferenceSystem {
 
 		// Hobbs algorithm
 		for (Mention m : doc.getMentions()) {
-			currMention = m;
+			currMention.set(m);
 			Pair<ClusteredMention,Boolean> old = treeToEntityMap.get(Pair.make(m.sentence, rangeOfMention(m)));
 			ClusteredMention oldCm = old.getFirst();
 
@@ -415,9 +451,9 @@ public class RuleBased implements CoreferenceSystem {
 	}
 
 	public ClusteredMention propose(Tree<String> node, Sentence sentence, Pair<Integer, Integer> range) {
-		
+		Mention currMention = this.currMention.get();
+		HashMap<Pair<Sentence, Pair<Integer, Integer>>, Pair<ClusteredMention, Boolean>> treeToEntityMap = this.treeToEntityMap.get();
 
-		
 		if (debug) {
 			System.out.println("Proposing node: " + node);	
 		}
@@ -428,6 +464,15 @@ public class RuleBased implements CoreferenceSystem {
 		}
 		ClusteredMention cm = curr.getFirst();
 
+		// Never propose a mention the blocking index rules out (antecedent or not).
+		BlockingIndex blocking = this.blocking.get();
+		if (blocking != null) {
+			Document doc = currMention.doc;
+			if (!blocking.compatible(doc.indexOfMention(currMention), doc.indexOfMention(cm.mention))) {
+				return null;
+			}
+		}
+
 		Pronoun pOther = Pronoun.valueOrNull(cm.mention.gloss().toUpperCase().replaceAll(" ","_"));
 		Pronoun pCurr = Pronoun.valueOrNull(currMention.gloss().toUpperCase().replaceAll(" ","_"));
 		
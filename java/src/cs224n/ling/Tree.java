@@ -1,13 +1,19 @@
 package cs224n.ling;
 
 import cs224n.util.Decodable;
+import cs224n.util.IOUtils;
+import cs224n.util.Indexer;
 import cs224n.util.Pair;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represent linguistic trees, with each node consisting of a label
@@ -16,11 +22,11 @@ import java.util.List;
  * @author Gabor Angeli (custom serialization; equals() and hashCode())
  */
 public class Tree<L> implements Serializable, Decodable {
-	private static int nextUniqueIndex = 0;
+	private static final AtomicInteger nextUniqueIndex = new AtomicInteger(0);
 
 	private L label;
 	private List<Tree<L>> children;
-	private int uniqueIndex = nextUniqueIndex++;
+	private int uniqueIndex = nextUniqueIndex.getAndIncrement();
 
 
 	public List<Tree<L>> getChildren() {
@@ -375,4 +381,31 @@ public class Tree<L> implements Serializable, Decodable {
 			return decodeTree(encoded.toCharArray(), 0, 0).getFirst();
 		}
 	}
+
+	/**
+	 * Write this tree in preorder; each node is written as the index of its label
+	 * in the string table, followed by its number of children.
+	 * @param out The output to write to
+	 * @param strings The string table to index labels in
+	 */
+	public void encodeBinary(DataOutput out, Indexer<String> strings) throws IOException {
+		IOUtils.writeVarInt(out, strings.addAndGetIndex(String.valueOf(label)));
+		IOUtils.writeVarInt(out, children.size());
+		for(Tree<L> child : children){
+			child.encodeBinary(out, strings);
+		}
+	}
+
+	public static Tree<String> decodeBinary(DataInput in, List<String> strings) throws IOException {
+		String label = strings.get(IOUtils.readVarInt(in));
+		int numChildren = IOUtils.readVarInt(in);
+		if(numChildren == 0){
+			return new Tree<String>(label);
+		}
+		List<Tree<String>> children = new ArrayList<Tree<String>>(numChildren);
+		for(int i=0; i<numChildren; i++){
+			children.add(decodeBinary(in, strings));
+		}
+		return new Tree<String>(label, children);
+	}
 }
@@ -0,0 +1,177 @@
+package cs224n.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.*;
+
+/**
+ * A read-only list whose elements are loaded on demand from a RefreshFunction,
+ * and kept in memory up to a budget.
+ *
+ * The most recently used elements are held strongly, as long as their total
+ * weight (as estimated by a Weigher) stays within the budget. Elements pushed
+ * out of the budget are held softly, so that the garbage collector may reclaim
+ * them only if memory actually runs low. An element which is neither is loaded
+ * again from the RefreshFunction.
+ *
+ * The list is safe to read from multiple threads.
+ */
+public class CachedList<E> extends AbstractList<E> implements WeakReferenceList.RefreshFunction<E> {
+  public static interface Weigher<E>{
+    /**
+     * An estimate of the memory an element holds on to
+     * @param e The element
+     * @return The estimated size of the element, in bytes
+     */
+    public long weigh(E e);
+  }
+
+  private static class Entry<E>{
+    private final E value;
+    private final long weight;
+    private Entry(E value, long weight){ this.value = value; this.weight = weight; }
+  }
+
+  /**
+   * A softly held element, which remembers its index so that it can be
+   * dropped from the soft cache once the collector has cleared it
+   */
+  private static class SoftEntry<E> extends SoftReference<E> {
+    private final int index;
+    private SoftEntry(int index, E value, ReferenceQueue<? super E> queue){ super(value, queue); this.index = index; }
+  }
+
+  private final WeakReferenceList.RefreshFunction<E> source;
+  private final Weigher<E> weigher;
+  private final long budget;
+  private final int prefetch;
+
+  private final LinkedHashMap<Integer,Entry<E>> strong = new LinkedHashMap<Integer,Entry<E>>(16, 0.75f, true);
+  private final HashMap<Integer,SoftEntry<E>> soft = new HashMap<Integer,SoftEntry<E>>();
+  private final ReferenceQueue<E> cleared = new ReferenceQueue<E>();
+  private final boolean[] everLoaded;
+  private long weight = 0;
+  private PrefetchingIterator<E> lastPrefetcher = null;
+
+  private int hits = 0;
+  private int softHits = 0;
+  private int misses = 0;
+  private int reloads = 0;
+  private int evictions = 0;
+
+  /**
+   * Create a new cached list.
+   * @param source The function to load elements with
+   * @param weigher The estimate of an element's size
+   * @param budget The total weight of the elements to hold strongly, in bytes
+   * @param prefetch The number of elements to load ahead of an iterator; 0 disables prefetching
+   */
+  public CachedList(WeakReferenceList.RefreshFunction<E> source, Weigher<E> weigher, long budget, int prefetch){
+    if(budget < 0){ throw new IllegalArgumentException("Cache budget must be non-negative: " + budget); }
+    this.source = source;
+    this.weigher = weigher;
+    this.budget = budget;
+    this.prefetch = prefetch;
+    this.everLoaded = new boolean[source.size()];
+  }
+
+  public int size() {
+    return source.size();
+  }
+
+  public E get(int i) {
+    if(i < 0 || i >= size()){ throw new IndexOutOfBoundsException(""+i); }
+    //--Check Cache
+    synchronized(this){
+      //(strongly held)
+      Entry<E> entry = strong.get(i);
+      if(entry != null){
+        hits += 1;
+        return entry.value;
+      }
+      //(softly held)
+      purge();
+      SoftEntry<E> ref = soft.remove(i);
+      E value = ref == null ? null : ref.get();
+      if(value != null){
+        softHits += 1;
+        hold(i, value);
+        return value;
+      }
+    }
+    //--Load
+    //(outside of the lock, so that loads can overlap)
+    E value = source.get(i);
+    synchronized(this){
+      if(everLoaded[i]){
+        reloads += 1;
+      } else {
+        misses += 1;
+        everLoaded[i] = true;
+      }
+      if(!strong.containsKey(i)){ hold(i, value); }
+    }
+    return value;
+  }
+
+  private void hold(int i, E value){
+    Entry<E> entry = new Entry<E>(value, weigher.weigh(value));
+    strong.put(i, entry);
+    weight += entry.weight;
+    //(evict least recently used elements to the soft cache)
+    Iterator<Map.Entry<Integer,Entry<E>>> iter = strong.entrySet().iterator();
+    while(weight > budget && iter.hasNext()){
+      Map.Entry<Integer,Entry<E>> eldest = iter.next();
+      iter.remove();
+      weight -= eldest.getValue().weight;
+      soft.put(eldest.getKey(), new SoftEntry<E>(eldest.getKey(), eldest.getValue().value, cleared));
+      evictions += 1;
+    }
+  }
+
+  /**
+   * Drop the soft entries whose elements the collector has reclaimed
+   */
+  @SuppressWarnings("unchecked")
+  private void purge(){
+    SoftEntry<E> ref;
+    while((ref = (SoftEntry<E>) cleared.poll()) != null){
+      //(the element may have been held again, and evicted again, since)
+      if(soft.get(ref.index) == ref){ soft.remove(ref.index); }
+    }
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    if(prefetch > 0){
+      //(case: load elements ahead of the caller, through the cache)
+      final PrefetchingIterator<E> prefetcher = new PrefetchingIterator<E>(this, prefetch, 1);
+      lastPrefetcher = prefetcher;
+      return prefetcher;
+    }
+    return super.iterator();
+  }
+
+  /**
+   * The prefetcher used by the most recent iteration over this list, if any
+   * @return The prefetching iterator, or null if prefetching is disabled
+   */
+  public PrefetchingIterator<E> lastPrefetcher(){
+    return lastPrefetcher;
+  }
+
+  /** The number of lookups answered by a strongly held element */
+  public synchronized int hits(){ return hits; }
+  /** The number of lookups answered by a softly held element, which the collector had not reclaimed */
+  public synchronized int softHits(){ return softHits; }
+  /** The number of elements loaded for the first time */
+  public synchronized int misses(){ return misses; }
+  /** The number of elements loaded again, after being dropped from the cache */
+  public synchronized int reloads(){ return reloads; }
+
+  @Override
+  public synchronized String toString(){
+    return "hits=" + hits + " soft-hits=" + softHits + " misses=" + misses + " reloads=" + reloads +
+        " evictions=" + evictions + "; holding " + strong.size() + " elements (" + (weight / 1024) + " KB of " + (budget / 1024) + " KB)";
+  }
+}
@@ -748,6 +748,69 @@ public class IOUtils {
     return buff.toString();
   }
 
+  /**
+   * Write a non-negative integer using a variable-length encoding of 7 bits per byte,
+   * so that small values take a single byte.
+   *
+   * @param out Where the integer should be written.
+   * @param value The integer to write.
+   */
+  public static void writeVarInt(DataOutput out, int value) throws IOException {
+    if (value < 0) {
+      throw new IllegalArgumentException("Cannot write a negative varint: " + value);
+    }
+    while ((value & ~0x7F) != 0) {
+      out.writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  /**
+   * Read an integer written by {@link #writeVarInt(DataOutput, int)}.
+   *
+   * @param in Where the integer should be read from.
+   * @return The integer read.
+   */
+  public static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift > 28) {
+        throw new IOException("Malformed varint");
+      }
+      b = in.readByte();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  /**
+   * Write a String as its length in bytes (as a varint) followed by its UTF-8 bytes.
+   *
+   * @param out Where the string should be written.
+   * @param str The string to write.
+   */
+  public static void writeString(DataOutput out, String str) throws IOException {
+    byte[] bytes = str.getBytes(defaultEnc);
+    writeVarInt(out, bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a String written by {@link #writeString(DataOutput, String)}.
+   *
+   * @param in Where the string should be read from.
+   * @return The string read.
+   */
+  public static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[readVarInt(in)];
+    in.readFully(bytes);
+    return new String(bytes, defaultEnc);
+  }
+
   /**
    * Send all bytes from the input stream to the output stream.
    *
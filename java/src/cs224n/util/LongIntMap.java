@@ -0,0 +1,111 @@
+package cs224n.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to int values, held in open-addressed primitive arrays,
+ * so that looking up or adding a key allocates nothing (unless the map grows).
+ *
+ * The map is not synchronized. Any number of threads may read it at once,
+ * provided no thread is writing to it.
+ */
+public class LongIntMap {
+  //(a key of 0 marks an empty slot; the key 0 itself is held on the side)
+  private static final long EMPTY = 0L;
+
+  private long[] keys;
+  private int[] values;
+  private int size = 0;
+  private boolean hasZero = false;
+  private int zeroValue = 0;
+
+  public LongIntMap(){
+    this(16);
+  }
+
+  /**
+   * @param capacity The number of keys to make room for
+   */
+  public LongIntMap(int capacity){
+    int slots = 16;
+    while(slots * 3 / 4 < capacity){ slots *= 2; }
+    this.keys = new long[slots];
+    this.values = new int[slots];
+  }
+
+  private static int slot(long key, int mask){
+    long h = key * 0x9E3779B97F4A7C15L;
+    return ((int) (h ^ (h >>> 32))) & mask;
+  }
+
+  /**
+   * The value of a key
+   * @param key The key to look up
+   * @param missing The value to return if the map does not have the key
+   * @return The key's value, or missing
+   */
+  public int get(long key, int missing){
+    if(key == EMPTY){ return hasZero ? zeroValue : missing; }
+    long[] keys = this.keys;
+    int mask = keys.length - 1;
+    for(int s=slot(key, mask); ; s=(s + 1) & mask){
+      long k = keys[s];
+      if(k == key){ return values[s]; }
+      if(k == EMPTY){ return missing; }
+    }
+  }
+
+  /**
+   * Set the value of a key, replacing any value it had
+   */
+  public void put(long key, int value){
+    if(key == EMPTY){
+      hasZero = true;
+      zeroValue = value;
+      return;
+    }
+    int mask = keys.length - 1;
+    int s = slot(key, mask);
+    while(keys[s] != EMPTY && keys[s] != key){ s = (s + 1) & mask; }
+    if(keys[s] == EMPTY){
+      if((size + 1) * 4 > keys.length * 3){
+        grow();
+        put(key, value);
+        return;
+      }
+      keys[s] = key;
+      size += 1;
+    }
+    values[s] = value;
+  }
+
+  private void grow(){
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[oldKeys.length * 2];
+    values = new int[oldValues.length * 2];
+    int mask = keys.length - 1;
+    for(int i=0; i<oldKeys.length; i++){
+      if(oldKeys[i] != EMPTY){
+        int s = slot(oldKeys[i], mask);
+        while(keys[s] != EMPTY){ s = (s + 1) & mask; }
+        keys[s] = oldKeys[i];
+        values[s] = oldValues[i];
+      }
+    }
+  }
+
+  /**
+   * The number of keys in the map
+   */
+  public int size(){ return size + (hasZero ? 1 : 0); }
+
+  /**
+   * Remove every key, keeping the arrays
+   */
+  public void clear(){
+    Arrays.fill(keys, EMPTY);
+    size = 0;
+    hasZero = false;
+  }
+}
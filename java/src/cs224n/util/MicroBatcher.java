@@ -0,0 +1,151 @@
+package cs224n.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups items submitted concurrently into small batches, and hands each batch
+ * to a pool of worker threads, which process its items in parallel.
+ * A batch is closed once it has <code>maxBatch</code> items, or once
+ * <code>maxWaitMillis</code> have passed since its first item arrived,
+ * whichever comes first. A batch is also closed as soon as a worker is idle,
+ * since holding it open then would only add latency; batches thus grow only
+ * while every worker is busy. The items of a batch are started in the order
+ * they were submitted.
+ */
+public class MicroBatcher<I,O> {
+
+  /**
+   * The work done on each item.
+   * This is called from the worker threads, and must be safe to call concurrently.
+   */
+  public static interface Processor<I,O> {
+    public O process(I item);
+  }
+
+  private final Processor<I,O> processor;
+  private final int maxBatch;
+  private final long maxWaitNanos;
+  private final BlockingQueue<FutureTask<O>> pending = new LinkedBlockingQueue<FutureTask<O>>();
+  private final ExecutorService workers;
+  private final int numThreads;
+  private final AtomicInteger running = new AtomicInteger(0);
+  private final Thread dispatcher;
+  private volatile boolean closed = false;
+
+  private long batches = 0;
+  private long items = 0;
+  private int largestBatch = 0;
+
+  /**
+   * Create a new batcher, and start its dispatcher thread.
+   * @param processor The work done on each item
+   * @param numThreads The number of worker threads
+   * @param maxBatch The largest number of items in a batch
+   * @param maxWaitMillis The longest time a batch is held open waiting for more items
+   */
+  public MicroBatcher(Processor<I,O> processor, int numThreads, int maxBatch, long maxWaitMillis){
+    if(numThreads <= 0){ throw new IllegalArgumentException("Number of worker threads must be positive: " + numThreads); }
+    if(maxBatch <= 0){ throw new IllegalArgumentException("Batch size must be positive: " + maxBatch); }
+    if(maxWaitMillis < 0){ throw new IllegalArgumentException("Batch wait must be non-negative: " + maxWaitMillis); }
+    this.processor = processor;
+    this.maxBatch = maxBatch;
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+    this.numThreads = numThreads;
+    this.workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory(){
+      private int count = 0;
+      public synchronized Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "batch-worker-" + (count++));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    this.dispatcher = new Thread(new Runnable(){
+      public void run() { dispatch(); }
+    }, "batch-dispatcher");
+    this.dispatcher.setDaemon(true);
+    this.dispatcher.start();
+  }
+
+  /**
+   * Queue an item to be processed in the next batch.
+   * @param item The item to process
+   * @return The result of processing the item, once its batch has run
+   */
+  public Future<O> submit(final I item){
+    FutureTask<O> task = new FutureTask<O>(new Callable<O>(){
+      public O call() { return processor.process(item); }
+    });
+    //(checked and queued under the lock close() takes, so no item is queued after the dispatcher may have exited)
+    synchronized(this){
+      if(closed){ throw new RejectedExecutionException("Batcher is closed"); }
+      pending.add(task);
+    }
+    return task;
+  }
+
+  private void dispatch(){
+    try {
+      while(!closed || !pending.isEmpty()){
+        //(wait for the first item of a batch)
+        FutureTask<O> first = pending.poll(100, TimeUnit.MILLISECONDS);
+        if(first == null){ continue; }
+        List<FutureTask<O>> batch = new ArrayList<FutureTask<O>>(maxBatch);
+        batch.add(first);
+        //(collect more items, until the batch is full or its time is up, or a worker is free for it)
+        long deadline = System.nanoTime() + maxWaitNanos;
+        while(batch.size() < maxBatch && running.get() >= numThreads){
+          FutureTask<O> next = pending.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+          if(next == null){ break; }
+          batch.add(next);
+        }
+        pending.drainTo(batch, maxBatch - batch.size());
+        synchronized(this){
+          batches += 1;
+          items += batch.size();
+          largestBatch = Math.max(largestBatch, batch.size());
+        }
+        //(run the batch, one item per task, so that its items run in parallel)
+        for(final FutureTask<O> task : batch){
+          running.incrementAndGet();
+          workers.execute(new Runnable(){
+            public void run() {
+              try {
+                task.run();
+              } finally {
+                running.decrementAndGet();
+              }
+            }
+          });
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Stop accepting items, finish every item already queued, and stop the worker threads.
+   */
+  public void close(){
+    synchronized(this){ closed = true; }
+    try {
+      dispatcher.join();
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public synchronized long batches(){ return batches; }
+  public synchronized long items(){ return items; }
+
+  public synchronized String toString(){
+    return "[" + items + " items in " + batches + " batches; mean batch " +
+        (batches == 0 ? "0.0" : String.format("%.1f", ((double) items) / ((double) batches))) +
+        ", largest " + largestBatch + ", " + pending.size() + " waiting]";
+  }
+}
@@ -0,0 +1,127 @@
+package cs224n.util;
+
+import java.util.Arrays;
+
+/**
+ * A binary linear classifier trained one datum at a time, over sparse vectors
+ * of feature ids. The weights grow as new features appear (see grow()), so a
+ * learner can be trained while the feature index is still being filled.
+ *
+ * A datum is classified true if its score (the dot product of its features
+ * with the weights returned by margins()) is positive.
+ */
+public abstract class OnlineLearner {
+  protected double[] weights = new double[0];
+
+  /**
+   * Make room for features with ids below a bound
+   * @param numFeatures The number of features seen so far
+   */
+  public void grow(int numFeatures){
+    if(numFeatures > weights.length){
+      int size = Math.max(numFeatures, 2 * weights.length);
+      weights = Arrays.copyOf(weights, size);
+      grown(size);
+    }
+  }
+
+  /**
+   * Called when the weights have grown, to grow any other per-feature arrays
+   */
+  protected abstract void grown(int size);
+
+  /**
+   * Update the weights on one datum
+   * @param features The features of the datum; their ids must be below the bound given to grow()
+   * @param label The label of the datum
+   * @return True if the weights (before the update) misclassified the datum
+   */
+  public abstract boolean update(SparseVector features, boolean label);
+
+  /**
+   * The trained weights
+   * @param numFeatures The number of features
+   * @return The weight of each feature, by id
+   */
+  public abstract double[] margins(int numFeatures);
+
+  /**
+   * An averaged perceptron: the weights move toward each misclassified datum,
+   * and the returned weights are their average over every datum seen, which
+   * makes them far less sensitive to the last few updates.
+   */
+  public static class AveragedPerceptron extends OnlineLearner {
+    //(the sum of c * update, for each update made at step c; the average is weights - sum/c)
+    private double[] stepWeighted = new double[0];
+    private long step = 1;
+
+    protected void grown(int size){
+      stepWeighted = Arrays.copyOf(stepWeighted, size);
+    }
+
+    public boolean update(SparseVector features, boolean label){
+      double sign = label ? 1.0 : -1.0;
+      boolean mistake = sign * features.dot(weights) <= 0.0;
+      if(mistake){
+        for(int i=0; i<features.size(); i++){
+          int f = features.index(i);
+          double delta = sign * features.value(i);
+          weights[f] += delta;
+          stepWeighted[f] += step * delta;
+        }
+      }
+      step += 1;
+      return mistake;
+    }
+
+    public double[] margins(int numFeatures){
+      double[] margins = new double[numFeatures];
+      for(int f=0; f<Math.min(numFeatures, weights.length); f++){
+        margins[f] = weights[f] - stepWeighted[f] / step;
+      }
+      return margins;
+    }
+  }
+
+  /**
+   * Logistic regression by stochastic gradient descent, with a per-feature
+   * learning rate (AdaGrad): each feature's steps shrink with the square root
+   * of the sum of its squared gradients, so rare features still move.
+   * The score of a datum is its log-odds of being true.
+   */
+  public static class AdaGradLogistic extends OnlineLearner {
+    private final double learningRate;
+    private double[] squaredGradients = new double[0];
+
+    public AdaGradLogistic(double learningRate){
+      if(learningRate <= 0.0){ throw new IllegalArgumentException("Learning rate must be positive: " + learningRate); }
+      this.learningRate = learningRate;
+    }
+
+    protected void grown(int size){
+      squaredGradients = Arrays.copyOf(squaredGradients, size);
+    }
+
+    public boolean update(SparseVector features, boolean label){
+      double score = features.dot(weights);
+      double probability = 1.0 / (1.0 + Math.exp(-score));
+      //(the gradient of the log loss, with respect to the score)
+      double error = probability - (label ? 1.0 : 0.0);
+      for(int i=0; i<features.size(); i++){
+        int f = features.index(i);
+        double gradient = error * features.value(i);
+        if(gradient != 0.0){
+          squaredGradients[f] += gradient * gradient;
+          weights[f] -= learningRate * gradient / Math.sqrt(squaredGradients[f]);
+        }
+      }
+      return (score > 0.0) != label;
+    }
+
+    public double[] margins(int numFeatures){
+      double[] margins = new double[numFeatures];
+      System.arraycopy(weights, 0, margins, 0, Math.min(numFeatures, weights.length));
+      return margins;
+    }
+  }
+}
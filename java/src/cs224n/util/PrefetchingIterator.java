@@ -0,0 +1,119 @@
+package cs224n.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+
+/**
+ * An iterator over the elements of a RefreshFunction, which loads the next few
+ * elements on background threads while the caller is busy with the current one.
+ * At most <code>depth</code> elements are loaded ahead of the caller; the time the
+ * caller spends waiting for an element which is not ready yet is recorded as
+ * stall time.
+ */
+public class PrefetchingIterator<E> implements Iterator<E> {
+  private final WeakReferenceList.RefreshFunction<E> source;
+  private final int depth;
+  private final ExecutorService loaders;
+  private final LinkedList<Future<E>> queue = new LinkedList<Future<E>>();
+
+  private int nextToLoad = 0;
+  private int nextToReturn = 0;
+  private int stalls = 0;
+  private long stallNanos = 0;
+
+  /**
+   * Create a new prefetching iterator.
+   * @param source The elements to iterate over
+   * @param depth The maximum number of elements to load ahead of the caller
+   * @param numThreads The number of background threads loading elements
+   */
+  public PrefetchingIterator(WeakReferenceList.RefreshFunction<E> source, int depth, int numThreads){
+    if(depth <= 0){ throw new IllegalArgumentException("Prefetch depth must be positive: " + depth); }
+    if(numThreads <= 0){ throw new IllegalArgumentException("Number of loader threads must be positive: " + numThreads); }
+    this.source = source;
+    this.depth = depth;
+    this.loaders = Executors.newFixedThreadPool(numThreads, new ThreadFactory(){
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "prefetch");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+    fill();
+  }
+
+  private void fill(){
+    while(queue.size() < depth && nextToLoad < source.size()){
+      final int index = nextToLoad;
+      queue.addLast(loaders.submit(new Callable<E>(){
+        public E call() {
+          return source.get(index);
+        }
+      }));
+      nextToLoad += 1;
+    }
+    if(queue.isEmpty()){ loaders.shutdown(); }
+  }
+
+  public boolean hasNext() {
+    return nextToReturn < source.size();
+  }
+
+  public E next() {
+    if(!hasNext()){ throw new NoSuchElementException(); }
+    Future<E> head = queue.removeFirst();
+    //(wait for the element, if it's not ready)
+    E rtn;
+    long start = System.nanoTime();
+    boolean stalled = !head.isDone();
+    try {
+      rtn = head.get();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      if(e.getCause() instanceof RuntimeException){ throw (RuntimeException) e.getCause(); }
+      throw new RuntimeException(e.getCause());
+    }
+    if(stalled){
+      stalls += 1;
+      stallNanos += System.nanoTime() - start;
+    }
+    //(load another element)
+    nextToReturn += 1;
+    fill();
+    return rtn;
+  }
+
+  public void remove() {
+    throw new UnsupportedOperationException("Cannot remove from a prefetching iterator");
+  }
+
+  /**
+   * Stop loading elements in the background.
+   * Calling next() after this method is undefined.
+   */
+  public void close(){
+    for(Future<E> f : queue){ f.cancel(true); }
+    queue.clear();
+    loaders.shutdownNow();
+  }
+
+  /**
+   * The number of times the caller had to wait for an element
+   * @return The number of stalls so far
+   */
+  public int stalls(){ return stalls; }
+
+  /**
+   * The total time the caller spent waiting on elements
+   * @return The stall time so far, in milliseconds
+   */
+  public double stallMillis(){ return ((double) stallNanos) / 1000000.0; }
+
+  @Override
+  public String toString(){
+    return "prefetched " + nextToReturn + " elements (depth " + depth + "); stalled " + stalls + " times for " + String.format("%.1f", stallMillis()) + " ms";
+  }
+}
@@ -0,0 +1,179 @@
+package cs224n.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Accumulates the time and memory spent in named phases of a run
+ * (e.g., loading documents, training, inference).
+ *
+ * A phase is timed on the thread which runs it:
+ * <pre>
+ *   Profiler.Timer timer = Profiler.start("inference");
+ *   ... run a document ...
+ *   timer.stop(1);
+ * </pre>
+ * Wall time, CPU time and allocated bytes are measured for the calling thread,
+ * and summed over every call and thread; phases may nest inside each other.
+ * Allocation is only reported on JVMs which support counting it per thread.
+ *
+ * A phase which hands its work to other threads counts their CPU time and
+ * allocation too, if each worker times its share with a worker timer:
+ * <pre>
+ *   Profiler.Timer work = timer.worker();  //(on the worker thread)
+ *   ... extract a document ...
+ *   work.stop();
+ * </pre>
+ */
+public class Profiler {
+  private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private static final boolean cpuSupported = threadBean.isCurrentThreadCpuTimeSupported();
+  private static final com.sun.management.ThreadMXBean allocBean;
+  static {
+    com.sun.management.ThreadMXBean bean = null;
+    if(threadBean instanceof com.sun.management.ThreadMXBean){
+      bean = (com.sun.management.ThreadMXBean) threadBean;
+      if(bean.isThreadAllocatedMemorySupported()){
+        bean.setThreadAllocatedMemoryEnabled(true);
+      } else {
+        bean = null;
+      }
+    }
+    allocBean = bean;
+  }
+
+  private static final Map<String,Phase> phases = new LinkedHashMap<String,Phase>();
+
+  private static class Phase {
+    private final String name;
+    private long calls = 0;
+    private long items = 0;
+    private long wallNanos = 0;
+    private long cpuNanos = 0;
+    private long allocBytes = 0;
+    private Phase(String name){ this.name = name; }
+  }
+
+  /**
+   * A single timing of a phase, on the thread which started it
+   */
+  public static class Timer {
+    private final String phase;
+    private final Timer parent;
+    private final long wallStart;
+    private final long cpuStart;
+    private final long allocStart;
+    private boolean stopped = false;
+    //(the CPU time and allocation of stopped worker timers)
+    private long workerCpuNanos = 0;
+    private long workerAllocBytes = 0;
+
+    private Timer(String phase, Timer parent){
+      this.phase = phase;
+      this.parent = parent;
+      this.cpuStart = cpuNanos();
+      this.allocStart = allocBytes();
+      this.wallStart = System.nanoTime();
+    }
+
+    /**
+     * Stop the timer, without counting any items toward its throughput
+     */
+    public void stop(){ stop(0); }
+
+    /**
+     * Start timing work done for this timer on the current thread, which may
+     * not be the one that started this timer. The worker timer must be stopped
+     * (on the same thread) before this one is; its CPU time and allocation are
+     * then added to this timer's, but its wall time is not, since it overlaps.
+     * @return A worker timer
+     */
+    public Timer worker(){
+      return new Timer(phase, this);
+    }
+
+    /**
+     * Stop the timer, and add it to its phase (or, for a worker timer, to the timer it works for).
+     * Must be called from the thread which started the timer.
+     * @param items The number of items (e.g., documents) processed; ignored for a worker timer
+     */
+    public void stop(int items){
+      long wall = System.nanoTime() - wallStart;
+      long cpu = cpuNanos() - cpuStart;
+      long alloc = allocBytes() - allocStart;
+      synchronized(this){
+        if(stopped){ throw new IllegalStateException("Timer for " + phase + " was stopped twice"); }
+        stopped = true;
+        cpu += workerCpuNanos;
+        alloc += workerAllocBytes;
+      }
+      if(parent != null){
+        synchronized(parent){
+          if(parent.stopped){ throw new IllegalStateException("Timer for " + phase + " was stopped before its workers"); }
+          parent.workerCpuNanos += cpu;
+          parent.workerAllocBytes += alloc;
+        }
+        return;
+      }
+      synchronized(phases){
+        Phase p = phases.get(phase);
+        if(p == null){
+          p = new Phase(phase);
+          phases.put(phase, p);
+        }
+        p.calls += 1;
+        p.items += items;
+        p.wallNanos += wall;
+        p.cpuNanos += cpu;
+        p.allocBytes += alloc;
+      }
+    }
+  }
+
+  private static long cpuNanos(){
+    return cpuSupported ? threadBean.getCurrentThreadCpuTime() : 0;
+  }
+
+  private static long allocBytes(){
+    return allocBean == null ? 0 : allocBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Start timing a phase on the current thread
+   * @param phase The name of the phase
+   * @return A timer, to be stopped when the phase is done
+   */
+  public static Timer start(String phase){
+    return new Timer(phase, null);
+  }
+
+  /**
+   * Forget every phase timed so far
+   */
+  public static void reset(){
+    synchronized(phases){ phases.clear(); }
+  }
+
+  /**
+   * A table of every phase timed so far, in the order they were first finished
+   * @return The report, one phase per line
+   */
+  public static String report(){
+    StringBuilder b = new StringBuilder();
+    b.append(String.format("%-18s %8s %8s %10s %10s %12s %10s%n", "phase", "calls", "items", "wall (s)", "cpu (s)", "alloc (MB)", "items/s"));
+    synchronized(phases){
+      for(Phase p : phases.values()){
+        double wall = ((double) p.wallNanos) / 1e9;
+        b.append(String.format("%-18s %8d %8d %10.3f %10s %12s %10s%n",
+            p.name, p.calls, p.items, wall,
+            cpuSupported ? String.format("%.3f", ((double) p.cpuNanos) / 1e9) : "n/a",
+            allocBean != null ? String.format("%.1f", ((double) p.allocBytes) / (1024.0 * 1024.0)) : "n/a",
+            p.items > 0 && wall > 0.0 ? String.format("%.1f", ((double) p.items) / wall) : "-"));
+      }
+    }
+    b.append("(times are summed over threads; phases may nest, and count work on other threads only through worker timers)");
+    return b.toString();
+  }
+}
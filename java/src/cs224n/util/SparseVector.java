@@ -0,0 +1,85 @@
+package cs224n.util;
+
+import java.util.Arrays;
+
+/**
+ * A sparse vector of float values over integer indices, held in parallel
+ * primitive arrays. An index may be added more than once; its values are
+ * then summed (as in Counter.incrementCount()).
+ *
+ * A vector is meant to be reused: clear() keeps its arrays, so filling it
+ * again allocates nothing unless it grows.
+ */
+public class SparseVector {
+  private int[] indices;
+  private float[] values;
+  private int size = 0;
+
+  public SparseVector(){
+    this(16);
+  }
+
+  public SparseVector(int capacity){
+    this.indices = new int[Math.max(1, capacity)];
+    this.values = new float[Math.max(1, capacity)];
+  }
+
+  public void clear(){ size = 0; }
+
+  public int size(){ return size; }
+
+  public int index(int i){ return indices[i]; }
+
+  public float value(int i){ return values[i]; }
+
+  public void add(int index, float value){
+    if(size == indices.length){
+      indices = Arrays.copyOf(indices, size * 2);
+      values = Arrays.copyOf(values, size * 2);
+    }
+    indices[size] = index;
+    values[size] = value;
+    size += 1;
+  }
+
+  /**
+   * The dot product with a dense weight vector; indices outside of the
+   * weights (e.g., features unseen in training) count as zero.
+   */
+  public double dot(double[] weights){
+    double sum = 0.0;
+    for(int i=0; i<size; i++){
+      int index = indices[i];
+      if(index >= 0 && index < weights.length){ sum += weights[index] * values[i]; }
+    }
+    return sum;
+  }
+
+  /**
+   * Replace each index with its entry in a map of indices
+   * @param map The new index of each index in this vector
+   */
+  public void remap(int[] map){
+    for(int i=0; i<size; i++){ indices[i] = map[indices[i]]; }
+  }
+
+  /**
+   * A copy of this vector, with arrays no larger than it needs
+   */
+  public SparseVector copy(){
+    SparseVector copy = new SparseVector(size);
+    System.arraycopy(indices, 0, copy.indices, 0, size);
+    System.arraycopy(values, 0, copy.values, 0, size);
+    copy.size = size;
+    return copy;
+  }
+
+  public String toString(){
+    StringBuilder b = new StringBuilder("{");
+    for(int i=0; i<size; i++){
+      if(i > 0){ b.append(", "); }
+      b.append(indices[i]).append("=").append(values[i]);
+    }
+    return b.append("}").toString();
+  }
+}
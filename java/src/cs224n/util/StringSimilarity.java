@@ -0,0 +1,304 @@
+package cs224n.util;
+
+import java.util.Arrays;
+
+/**
+ * String similarity measures that allocate nothing once warmed up: each thread
+ * keeps its own scratch buffers, which grow to the longest strings it has seen.
+ *
+ * Edit distance and longest common subsequence are bit-parallel (one machine
+ * word per 64 characters of the shorter string): for strings of up to 64
+ * characters, each character of the longer string costs a handful of word
+ * operations rather than a row of a dynamic program. Longer strings fall back
+ * to the dynamic program, over two rows of scratch space.
+ */
+public class StringSimilarity {
+  private static final int WORD = 64;
+  private static final int ASCII = 256;
+
+  /**
+   * Per-thread buffers
+   */
+  private static class Scratch {
+    //(bit masks of the positions of each character in the pattern)
+    private final long[] asciiMasks = new long[ASCII];
+    private final char[] otherChars = new char[WORD];
+    private final long[] otherMasks = new long[WORD];
+    private int numOther = 0;
+    //(dynamic programming rows)
+    private int[] previous = new int[WORD + 1];
+    private int[] current = new int[WORD + 1];
+    //(Jaro matches)
+    private boolean[] matchedA = new boolean[WORD];
+    private boolean[] matchedB = new boolean[WORD];
+
+    /**
+     * Set the masks for a pattern of at most 64 characters
+     */
+    private void setPattern(String pattern){
+      numOther = 0;
+      for(int i=0; i<pattern.length(); i++){
+        char c = pattern.charAt(i);
+        if(c < ASCII){
+          asciiMasks[c] |= 1L << i;
+        } else {
+          int k = 0;
+          while(k < numOther && otherChars[k] != c){ k += 1; }
+          if(k == numOther){
+            otherChars[k] = c;
+            otherMasks[k] = 0L;
+            numOther += 1;
+          }
+          otherMasks[k] |= 1L << i;
+        }
+      }
+    }
+
+    /**
+     * Reset the masks of a pattern set with setPattern()
+     */
+    private void clearPattern(String pattern){
+      for(int i=0; i<pattern.length(); i++){
+        char c = pattern.charAt(i);
+        if(c < ASCII){ asciiMasks[c] = 0L; }
+      }
+      numOther = 0;
+    }
+
+    private long mask(char c){
+      if(c < ASCII){ return asciiMasks[c]; }
+      for(int k=0; k<numOther; k++){
+        if(otherChars[k] == c){ return otherMasks[k]; }
+      }
+      return 0L;
+    }
+
+    private void ensureRows(int length){
+      if(previous.length < length + 1){
+        previous = new int[Math.max(length + 1, 2 * previous.length)];
+        current = new int[previous.length];
+      }
+    }
+
+    private void ensureMatches(int lengthA, int lengthB){
+      if(matchedA.length < lengthA){ matchedA = new boolean[Math.max(lengthA, 2 * matchedA.length)]; }
+      if(matchedB.length < lengthB){ matchedB = new boolean[Math.max(lengthB, 2 * matchedB.length)]; }
+    }
+  }
+
+  private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>(){
+    protected Scratch initialValue(){ return new Scratch(); }
+  };
+
+  private StringSimilarity(){}
+
+  /**
+   * The Levenshtein distance between two strings: the number of single-character
+   * insertions, deletions and substitutions that turn one into the other
+   */
+  public static int levenshtein(String a, String b){
+    return levenshtein(a, b, Integer.MAX_VALUE - 1);
+  }
+
+  /**
+   * The Levenshtein distance between two strings, if it is at most a bound.
+   * This gives up as soon as the distance is known to be over the bound.
+   * @param a The first string
+   * @param b The second string
+   * @param max The largest distance of interest
+   * @return The distance, or max+1 if it is greater than max
+   */
+  public static int levenshtein(String a, String b, int max){
+    if(max < 0){ throw new IllegalArgumentException("Bound must be non-negative: " + max); }
+    //(the pattern is the shorter string)
+    String pattern = a.length() <= b.length() ? a : b;
+    String text = a.length() <= b.length() ? b : a;
+    int m = pattern.length();
+    int n = text.length();
+    if(n - m > max){ return max + 1; }
+    if(m == 0){ return n; }
+    Scratch s = scratch.get();
+    if(m > WORD){ return levenshteinRows(s, pattern, text, max); }
+    //(Myers' bit-parallel algorithm, as formulated by Hyyro)
+    s.setPattern(pattern);
+    try {
+      long vp = m == WORD ? ~0L : (1L << m) - 1L;
+      long vn = 0L;
+      long last = 1L << (m - 1);
+      int score = m;
+      for(int j=0; j<n; j++){
+        long eq = s.mask(text.charAt(j));
+        long xv = eq | vn;
+        long xh = (((eq & vp) + vp) ^ vp) | eq;
+        long hp = vn | ~(xh | vp);
+        long hn = vp & xh;
+        if((hp & last) != 0L){ score += 1; } else if((hn & last) != 0L){ score -= 1; }
+        //(the rest of the text can lower the distance by at most one per character)
+        if(score - (n - j - 1) > max){ return max + 1; }
+        hp = (hp << 1) | 1L;
+        hn = hn << 1;
+        vp = hn | ~(xv | hp);
+        vn = hp & xv;
+      }
+      return score > max ? max + 1 : score;
+    } finally {
+      s.clearPattern(pattern);
+    }
+  }
+
+  /**
+   * The dynamic program for Levenshtein distance, two rows at a time
+   */
+  private static int levenshteinRows(Scratch s, String pattern, String text, int max){
+    int m = pattern.length();
+    s.ensureRows(m);
+    int[] previous = s.previous;
+    int[] current = s.current;
+    for(int i=0; i<=m; i++){ previous[i] = i; }
+    for(int j=1; j<=text.length(); j++){
+      char c = text.charAt(j - 1);
+      current[0] = j;
+      int best = current[0];
+      for(int i=1; i<=m; i++){
+        int cost = pattern.charAt(i - 1) == c ? 0 : 1;
+        current[i] = Math.min(Math.min(previous[i] + 1, current[i - 1] + 1), previous[i - 1] + cost);
+        if(current[i] < best){ best = current[i]; }
+      }
+      //(a row's minimum never decreases)
+      if(best > max){ return max + 1; }
+      int[] tmp = previous;
+      previous = current;
+      current = tmp;
+    }
+    return previous[m] > max ? max + 1 : previous[m];
+  }
+
+  /**
+   * The length of the longest common subsequence of two strings: the most
+   * characters that appear in both, in the same order (not necessarily adjacent)
+   */
+  public static int longestCommonSubsequence(String a, String b){
+    String pattern = a.length() <= b.length() ? a : b;
+    String text = a.length() <= b.length() ? b : a;
+    int m = pattern.length();
+    if(m == 0){ return 0; }
+    Scratch s = scratch.get();
+    if(m > WORD){ return longestCommonSubsequenceRows(s, pattern, text); }
+    //(Allison and Dix's bit-parallel algorithm; a zero bit in v marks the end of a match)
+    s.setPattern(pattern);
+    try {
+      long all = m == WORD ? ~0L : (1L << m) - 1L;
+      long v = all;
+      for(int j=0; j<text.length(); j++){
+        long u = v & s.mask(text.charAt(j));
+        v = ((v + u) | (v - u)) & all;
+      }
+      return m - Long.bitCount(v);
+    } finally {
+      s.clearPattern(pattern);
+    }
+  }
+
+  private static int longestCommonSubsequenceRows(Scratch s, String pattern, String text){
+    int m = pattern.length();
+    s.ensureRows(m);
+    int[] previous = s.previous;
+    int[] current = s.current;
+    Arrays.fill(previous, 0, m + 1, 0);
+    for(int j=1; j<=text.length(); j++){
+      char c = text.charAt(j - 1);
+      current[0] = 0;
+      for(int i=1; i<=m; i++){
+        current[i] = pattern.charAt(i - 1) == c ? previous[i - 1] + 1 : Math.max(previous[i], current[i - 1]);
+      }
+      int[] tmp = previous;
+      previous = current;
+      current = tmp;
+    }
+    return previous[m];
+  }
+
+  /**
+   * The length of the longest common contiguous substring of two strings.
+   * For instance, that of "color" and "colour" is 4, because of "colo".
+   */
+  public static int longestCommonSubstring(String a, String b){
+    String pattern = a.length() <= b.length() ? a : b;
+    String text = a.length() <= b.length() ? b : a;
+    int m = pattern.length();
+    if(m == 0){ return 0; }
+    Scratch s = scratch.get();
+    s.ensureRows(m);
+    int[] previous = s.previous;
+    int[] current = s.current;
+    Arrays.fill(previous, 0, m + 1, 0);
+    current[0] = 0;
+    int max = 0;
+    for(int j=1; j<=text.length(); j++){
+      char c = text.charAt(j - 1);
+      for(int i=1; i<=m; i++){
+        current[i] = pattern.charAt(i - 1) == c ? previous[i - 1] + 1 : 0;
+        if(current[i] > max){ max = current[i]; }
+      }
+      int[] tmp = previous;
+      previous = current;
+      current = tmp;
+    }
+    return max;
+  }
+
+  /**
+   * The Jaro similarity of two strings, between 0 (nothing in common) and 1 (equal)
+   */
+  public static double jaro(String a, String b){
+    int lengthA = a.length();
+    int lengthB = b.length();
+    if(lengthA == 0 && lengthB == 0){ return 1.0; }
+    if(lengthA == 0 || lengthB == 0){ return 0.0; }
+    Scratch s = scratch.get();
+    s.ensureMatches(lengthA, lengthB);
+    boolean[] matchedA = s.matchedA;
+    boolean[] matchedB = s.matchedB;
+    Arrays.fill(matchedA, 0, lengthA, false);
+    Arrays.fill(matchedB, 0, lengthB, false);
+    //(matches: equal characters, no farther apart than the window)
+    int window = Math.max(0, Math.max(lengthA, lengthB) / 2 - 1);
+    int matches = 0;
+    for(int i=0; i<lengthA; i++){
+      char c = a.charAt(i);
+      int end = Math.min(lengthB, i + window + 1);
+      for(int j=Math.max(0, i - window); j<end; j++){
+        if(!matchedB[j] && b.charAt(j) == c){
+          matchedA[i] = true;
+          matchedB[j] = true;
+          matches += 1;
+          break;
+        }
+      }
+    }
+    if(matches == 0){ return 0.0; }
+    //(transpositions: matched characters out of order, counted in halves)
+    int outOfOrder = 0;
+    int j = 0;
+    for(int i=0; i<lengthA; i++){
+      if(!matchedA[i]){ continue; }
+      while(!matchedB[j]){ j += 1; }
+      if(a.charAt(i) != b.charAt(j)){ outOfOrder += 1; }
+      j += 1;
+    }
+    double m = matches;
+    return (m / lengthA + m / lengthB + (m - outOfOrder / 2.0) / m) / 3.0;
+  }
+
+  /**
+   * The Jaro-Winkler similarity of two strings: the Jaro similarity, raised
+   * for strings that share a prefix (of up to 4 characters)
+   */
+  public static double jaroWinkler(String a, String b){
+    double jaro = jaro(a, b);
+    int prefix = 0;
+    int limit = Math.min(4, Math.min(a.length(), b.length()));
+    while(prefix < limit && a.charAt(prefix) == b.charAt(prefix)){ prefix += 1; }
+    return jaro + prefix * 0.1 * (1.0 - jaro);
+  }
+}